@@ -0,0 +1,197 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import edu.asu.zoophy.geonames.indexer.geotree.GeoNamesTree;
+
+/**
+ * Synthetic GeoNames dumps for the benchmarks, generated from a seed so every run indexes the same
+ * records without downloading anything. Countries, first and second level divisions and populated
+ * places are laid out like allCountries.txt and its lookup files; place names are drawn from a
+ * smaller pool so that, like the real dumps, many places share a name, and populations follow a
+ * long tail.
+ * @author amagge
+ */
+public class GeonamesFixture {
+
+	private static final String[] SYLLABLES = {"al", "an", "ber", "bro", "ca", "dor", "el", "fa", "gan", "hel",
+			"ka", "lo", "ma", "min", "na", "or", "pa", "ri", "sa", "ton", "u", "vil", "wa", "zen"};
+	private static final String[] SUFFIXES = {"", "", "", "ville", "field", "burg", "port", "wood", "ford", "ton"};
+	private static final String[] CONTINENTS = {"NA", "EU", "AS", "AF", "SA", "OC"};
+	private static final int COUNTRIES = 20;
+	private static final int ADM1_PER_COUNTRY = 10;
+	private static final int ADM2_PER_ADM1 = 10;
+	private static final int SAMPLES = 1000;
+
+	private final int places;
+	private final Random random;
+	// name, county, state and country of randomly chosen places
+	private final List<String[]> samples = new ArrayList<String[]>();
+
+	/**
+	 * @param places - number of populated places besides the countries and divisions
+	 * @param seed - seed of the generated names, coordinates and populations
+	 */
+	public GeonamesFixture(int places, long seed) {
+		this.places = places;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Writes allCountries.txt, alternateNamesV2.txt, countryInfo.txt, admin1CodesASCII.txt and admin2Codes.txt
+	 * @param dir - directory of the GeoNames files
+	 * @throws IOException
+	 */
+	public void write(File dir) throws IOException {
+		dir.mkdirs();
+		samples.clear();
+		try (BufferedWriter all = newWriter(dir, "allCountries.txt");
+				BufferedWriter alt = newWriter(dir, "alternateNamesV2.txt");
+				BufferedWriter countries = newWriter(dir, "countryInfo.txt");
+				BufferedWriter adm1s = newWriter(dir, "admin1CodesASCII.txt");
+				BufferedWriter adm2s = newWriter(dir, "admin2Codes.txt")) {
+			int altId = 1;
+			writeContinents(all);
+			String[] countryNames = new String[COUNTRIES];
+			String[][] adm1Names = new String[COUNTRIES][ADM1_PER_COUNTRY];
+			String[][][] adm2Names = new String[COUNTRIES][ADM1_PER_COUNTRY][ADM2_PER_ADM1];
+			for (int c = 0; c < COUNTRIES; c++) {
+				String iso = getIso(c);
+				int countryId = 1000 + c;
+				long countryPopulation = 1000000L + random.nextInt(300000000);
+				countryNames[c] = getName(3);
+				countries.write(iso + "\t" + iso + "X\t" + c + "\t" + iso + "\t" + countryNames[c] + "\tCapital\t"
+						+ random.nextInt(10000000) + "\t" + countryPopulation + "\t" + CONTINENTS[c % CONTINENTS.length]
+						+ "\t." + iso.toLowerCase(Locale.ROOT) + "\tCUR\tCurrency\t1\t\t\ten\t" + countryId + "\t\t\n");
+				writeRecord(all, countryId, countryNames[c], "A", "PCLI", iso, "00", "", countryPopulation);
+				alt.write(altId++ + "\t" + countryId + "\tabbr\t" + iso + "X\t\t\t\t\t\t\n");
+				for (int a1 = 0; a1 < ADM1_PER_COUNTRY; a1++) {
+					String adm1 = String.format(Locale.ROOT, "%02d", a1 + 1);
+					int adm1Id = 100000 + c * ADM1_PER_COUNTRY + a1;
+					adm1Names[c][a1] = getName(3);
+					adm1s.write(iso + "." + adm1 + "\t" + adm1Names[c][a1] + "\t" + adm1Names[c][a1] + "\t" + adm1Id + "\n");
+					writeRecord(all, adm1Id, adm1Names[c][a1], "A", "ADM1", iso, adm1, "", countryPopulation / ADM1_PER_COUNTRY);
+					alt.write(altId++ + "\t" + adm1Id + "\tabbr\t" + adm1Names[c][a1].substring(0, 2).toUpperCase(Locale.ROOT)
+							+ iso + "\t\t\t\t\t\t\n");
+					for (int a2 = 0; a2 < ADM2_PER_ADM1; a2++) {
+						String adm2 = String.format(Locale.ROOT, "%03d", a2 + 1);
+						int adm2Id = 200000 + (c * ADM1_PER_COUNTRY + a1) * ADM2_PER_ADM1 + a2;
+						adm2Names[c][a1][a2] = getName(2) + " County";
+						adm2s.write(iso + "." + adm1 + "." + adm2 + "\t" + adm2Names[c][a1][a2] + "\t"
+								+ adm2Names[c][a1][a2] + "\t" + adm2Id + "\n");
+						writeRecord(all, adm2Id, adm2Names[c][a1][a2], "A", "ADM2", iso, adm1, adm2,
+								countryPopulation / ADM1_PER_COUNTRY / ADM2_PER_ADM1);
+					}
+				}
+			}
+			String[] names = new String[Math.max(1, places / 4)];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = getName(2 + random.nextInt(2)) + SUFFIXES[random.nextInt(SUFFIXES.length)];
+			}
+			for (int i = 0; i < places; i++) {
+				int c = random.nextInt(COUNTRIES);
+				int a1 = random.nextInt(ADM1_PER_COUNTRY);
+				int a2 = random.nextInt(ADM2_PER_ADM1);
+				int id = 1000000 + i;
+				// low indexes are drawn more often, so a few names are shared by many places
+				String name = names[(int) (names.length * Math.pow(random.nextDouble(), 3))];
+				long population = random.nextInt(4) == 0 ? 0 : (long) (100 / Math.pow(random.nextDouble() + 1e-6, 1.5));
+				writeRecord(all, id, name, "P", population > 100000 ? "PPLA" : "PPL", getIso(c),
+						String.format(Locale.ROOT, "%02d", a1 + 1), String.format(Locale.ROOT, "%03d", a2 + 1), population);
+				if (random.nextInt(10) == 0) {
+					alt.write(altId++ + "\t" + id + "\ten\t" + getName(2) + "\t\t\t\t\t\t\n");
+				}
+				if (samples.size() < SAMPLES && random.nextInt(Math.max(1, places / SAMPLES)) == 0) {
+					samples.add(new String[] {name, adm2Names[c][a1][a2], adm1Names[c][a1], countryNames[c]});
+				}
+			}
+		}
+		Collections.shuffle(samples, random);
+	}
+
+	/**
+	 * @return name, county, state and country of up to 1000 of the generated places, in random order
+	 */
+	public List<String[]> getSamples() {
+		return samples;
+	}
+
+	private void writeContinents(BufferedWriter all) throws IOException {
+		writeRecord(all, 6255149, "North America", "L", "CONT", "", "", "", 0);
+		writeRecord(all, 6255148, "Europe", "L", "CONT", "", "", "", 0);
+		writeRecord(all, 6255147, "Asia", "L", "CONT", "", "", "", 0);
+		writeRecord(all, 6255146, "Africa", "L", "CONT", "", "", "", 0);
+		writeRecord(all, 6255150, "South America", "L", "CONT", "", "", "", 0);
+		writeRecord(all, 6255151, "Oceania", "L", "CONT", "", "", "", 0);
+	}
+
+	private void writeRecord(BufferedWriter all, int id, String name, String typeClass, String typeCode, String countryCode,
+			String adm1, String adm2, long population) throws IOException {
+		double latitude = random.nextDouble() * 180 - 90;
+		double longitude = random.nextDouble() * 360 - 180;
+		all.write(id + "\t" + name + "\t" + name + "\t\t" + String.format(Locale.ROOT, "%.5f\t%.5f", latitude, longitude)
+				+ "\t" + typeClass + "\t" + typeCode + "\t" + countryCode + "\t\t" + adm1 + "\t" + adm2 + "\t\t\t"
+				+ population + "\t\t0\tUTC\t2020-01-01\n");
+	}
+
+	private String getName(int syllables) {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < syllables; i++) {
+			name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+		return name.toString();
+	}
+
+	private static String getIso(int country) {
+		return "" + (char) ('Q' + country / 26) + (char) ('A' + country % 26);
+	}
+
+	private static BufferedWriter newWriter(File dir, String name) throws IOException {
+		return Files.newBufferedWriter(new File(dir, name).toPath(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sets up the indexer like the create command with the default feature filters of the template
+	 * @param dir - directory of the GeoNames files
+	 * @param schema - layout of the index created
+	 */
+	static void setupIndexer(File dir, int schema) {
+		Indexer.geonameResourcesDir = dir.getPath() + File.separator;
+		Indexer.featClassExcl = new HashSet<String>(Arrays.asList("H", "L", "R", "S", "T", "U", "V"));
+		Indexer.featCodeIncl = new HashSet<String>(Arrays.asList("CONT", "RGN", "RESN", "PRK", "ISL", "ISLS"));
+		Indexer.featCodeExcl = new HashSet<String>(Arrays.asList("ZN"));
+		Indexer.geonameIdsExcl = new HashSet<String>();
+		Indexer.indexerThreads = Runtime.getRuntime().availableProcessors();
+		Indexer.indexSchema = schema;
+		Indexer.geoTree = GeoNamesTree.getInstance(Indexer.geonameResourcesDir);
+	}
+
+	/**
+	 * Creates an index of the GeoNames files like the create command
+	 * @param dir - directory of the GeoNames files
+	 * @param index - directory of the index
+	 * @param schema - layout of the index
+	 * @param nameDeletes - edit distance covered by the NameDeletes field, 0 to leave it out
+	 * @throws IOException
+	 */
+	public static void createIndex(File dir, File index, int schema, int nameDeletes) throws IOException {
+		setupIndexer(dir, schema);
+		Indexer.luceneIndexDir = index.getPath();
+		Indexer.luceneWriter = new LuceneWriter(Indexer.luceneIndexDir, 256, false, schema, nameDeletes);
+		Indexer.loadAllCountries(Indexer.geonameResourcesDir + "allCountries.txt", null);
+		Indexer.luceneWriter.exitWriter();
+	}
+
+}
@@ -0,0 +1,116 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.asu.zoophy.geonames.indexer.geotree.GeoNameLocation;
+
+/**
+ * Parsing allCountries.txt records and building their Lucene documents, the per record work of the
+ * create command, over a generated fixture.
+ * @author amagge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IndexingBenchmark {
+
+	private static final int BLOCK_LINES = 1000;
+
+	@Param({"20000"})
+	private int places;
+
+	@Param({"1", "2"})
+	private int schema;
+
+	private File dir;
+	private File index;
+	private String[] blocks;
+	private GeoNameLocation[] locations;
+	private LuceneWriter luceneWriter;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		LogManager.getLogManager().getLogger("").setLevel(Level.WARNING);
+		dir = Files.createTempDirectory("geonames-fixture").toFile();
+		index = new File(dir, "index");
+		new GeonamesFixture(places, 42).write(dir);
+		GeonamesFixture.setupIndexer(dir, schema);
+		luceneWriter = new LuceneWriter(index.getPath(), 16, false, schema, 0);
+		List<String> lines = Files.readAllLines(new File(dir, "allCountries.txt").toPath(), StandardCharsets.UTF_8);
+		blocks = new String[lines.size() / BLOCK_LINES];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = String.join("\n", lines.subList(i * BLOCK_LINES, (i + 1) * BLOCK_LINES)) + "\n";
+		}
+		List<GeoNameLocation> parsed = new ArrayList<GeoNameLocation>();
+		TsvLine record = new TsvLine();
+		for (String line : lines) {
+			record.set(line);
+			if (Indexer.isIndexable(record)) {
+				parsed.add(Indexer.getGeoNameLocation(record, null));
+			}
+		}
+		locations = parsed.toArray(new GeoNameLocation[0]);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		luceneWriter.exitWriter();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Reads a block of lines, filters them on their fields and parses the indexed ones, per line
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BLOCK_LINES)
+	public void parseRecords(Blackhole blackhole) throws IOException {
+		String block = blocks[next++ % blocks.length];
+		try (TsvReader reader = new TsvReader(new StringReader(block))) {
+			while (reader.next()) {
+				TsvLine record = reader.line();
+				if (Indexer.isIndexable(record)) {
+					blackhole.consume(Indexer.getGeoNameLocation(record, null));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the document of a parsed record with the names of its ancestors
+	 */
+	@Benchmark
+	public Document buildDocument() {
+		return luceneWriter.getDocument(locations[next++ % locations.length]);
+	}
+
+}
@@ -0,0 +1,155 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import edu.asu.zoophy.geonames.indexer.GeonamesFixture;
+import edu.asu.zoophy.geonames.rest.exception.InvalidLuceneQueryException;
+import edu.asu.zoophy.geonames.rest.exception.LuceneSearcherException;
+
+/**
+ * Location resolution and /search over an index of a generated fixture. The searcher is set up by
+ * Spring as in the service, with the result cache disabled so every call searches the index.
+ * @author amagge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+
+	private static final int COUNT = 100;
+
+	@Param({"100000"})
+	private int places;
+
+	@Param({"1"})
+	private int schema;
+
+	@Param({"automaton"})
+	private String fuzzyEngine;
+
+	private File dir;
+	private AnnotationConfigApplicationContext context;
+	private LuceneSearcher searcher;
+	// "name, state" resolved by the strict query
+	private String[] strictLocations;
+	// "name county" only found in the full hierarchy
+	private String[] fullLocations;
+	// misspelled "name, state" only found by the fuzzy query
+	private String[] fuzzyLocations;
+	private String[] countryQueries;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		LogManager.getLogManager().getLogger("").setLevel(Level.WARNING);
+		dir = Files.createTempDirectory("geonames-fixture").toFile();
+		File index = new File(dir, "index");
+		GeonamesFixture fixture = new GeonamesFixture(places, 42);
+		fixture.write(dir);
+		GeonamesFixture.createIndex(dir, index, schema, fuzzyEngine.equals("deletes") ? 1 : 0);
+		File mappings = Files.createFile(new File(dir, "custom_mappings.tsv").toPath()).toFile();
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("lucene.index.location", index.getPath());
+		properties.put("geonames.mapping.file", mappings.getPath());
+		properties.put("lucene.cache.size", "0");
+		properties.put("lucene.suggest.location", "");
+		properties.put("lucene.fuzzy.engine", fuzzyEngine);
+		context = new AnnotationConfigApplicationContext();
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+		context.register(LuceneSearcher.class);
+		context.refresh();
+		searcher = context.getBean(LuceneSearcher.class);
+
+		List<String[]> samples = fixture.getSamples();
+		Random random = new Random(42);
+		strictLocations = new String[samples.size()];
+		fullLocations = new String[samples.size()];
+		fuzzyLocations = new String[samples.size()];
+		countryQueries = new String[samples.size()];
+		for (int i = 0; i < samples.size(); i++) {
+			String[] sample = samples.get(i);
+			strictLocations[i] = sample[0] + ", " + sample[2];
+			fullLocations[i] = sample[0] + " " + sample[1];
+			fuzzyLocations[i] = misspell(sample[0], random) + ", " + sample[2];
+			countryQueries[i] = "Country:" + sample[3];
+		}
+	}
+
+	/**
+	 * Swaps two neighbouring letters, one edit for the fuzzy query
+	 */
+	private static String misspell(String name, Random random) {
+		char[] chars = name.toCharArray();
+		int i = 1 + random.nextInt(chars.length - 2);
+		char c = chars[i];
+		chars[i] = chars[i + 1];
+		chars[i + 1] = c;
+		return new String(chars);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		context.close();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public Result locationStrict() throws LuceneSearcherException, InvalidLuceneQueryException {
+		return searcher.searchLocation(strictLocations[next++ % strictLocations.length], COUNT, null, true, null, null);
+	}
+
+	@Benchmark
+	public Result locationFull() throws LuceneSearcherException, InvalidLuceneQueryException {
+		return searcher.searchLocation(fullLocations[next++ % fullLocations.length], COUNT, "full", true, null, null);
+	}
+
+	@Benchmark
+	public Result locationFuzzy() throws LuceneSearcherException, InvalidLuceneQueryException {
+		return searcher.searchLocation(fuzzyLocations[next++ % fuzzyLocations.length], COUNT, null, true, null, null);
+	}
+
+	/**
+	 * /search with the default count, counting stops once the page is full
+	 */
+	@Benchmark
+	public Result search() throws LuceneSearcherException, InvalidLuceneQueryException {
+		return searcher.searchIndex(countryQueries[next++ % countryQueries.length], COUNT, false, null, null);
+	}
+
+	/**
+	 * /search with count=all, all matching records are counted
+	 */
+	@Benchmark
+	public Result searchCountAll() throws LuceneSearcherException, InvalidLuceneQueryException {
+		return searcher.searchIndex(countryQueries[next++ % countryQueries.length], COUNT, true, null, null);
+	}
+
+}
@@ -4,9 +4,13 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import edu.asu.zoophy.geonames.indexer.Indexer;
+import edu.asu.zoophy.geonames.indexer.Updater;
 import edu.asu.zoophy.geonames.downloader.Downloader;
 
 @EnableAutoConfiguration(exclude={DataSourceAutoConfiguration.class})
@@ -19,9 +23,24 @@ public class GeonamesService {
     public static void main(String[] args) {
     	if(args.length > 0){
 			if (args[0].equalsIgnoreCase("create")){
-				Indexer.createIndex();
+				try {
+					Indexer.createIndex();
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Index not created", e);
+					System.exit(1);
+				}
 			} else if (args[0].equalsIgnoreCase("download")) {
 				Downloader.downloadGeonamesFiles();
+			} else if (args[0].equalsIgnoreCase("update")) {
+				// GeoNames publishes the changes of a day on the following day
+				String date = args.length > 1 ? args[1] : LocalDate.now().minusDays(1).toString();
+				Downloader.downloadUpdateFiles(date);
+				try {
+					Updater.updateIndex(date);
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Index not updated", e);
+					System.exit(1);
+				}
 			} else {
 				log.info("Invalid argument:'" + args[0] + "'. Please check the documentation for valid arguments.");
 			}
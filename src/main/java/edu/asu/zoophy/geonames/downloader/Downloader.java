@@ -48,6 +48,24 @@ public class Downloader {
 		log.info("Finished Downloading Geonames files");
 	}
 
+    /**
+     * Downloads the daily modification and deletion files that are not already
+     * in the resources directory
+     * @param date - date of the files, formatted as YYYY-MM-DD
+     */
+    public static void downloadUpdateFiles(String date) {
+		loadProperties();
+		String[] updateFiles = {"modifications-" + date + ".txt", "deletes-" + date + ".txt",
+				"alternateNamesModifications-" + date + ".txt", "alternateNamesDeletes-" + date + ".txt"};
+		for (String updateFile : updateFiles) {
+			if (new File(geonamesResourcesDir, updateFile).exists()) {
+				log.info("Using existing " + updateFile);
+			} else {
+				downloadFile(updateFile);
+			}
+		}
+	}
+
     private static void loadProperties() {
 		Properties prop = new Properties();
 		InputStream input = null;
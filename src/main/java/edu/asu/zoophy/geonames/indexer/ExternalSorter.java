@@ -0,0 +1,227 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Sorts large tab separated files by an integer key column (e.g. geonameid) with bounded memory.
+ * Sorted chunks of about chunkMB of lines are spilled to temporary files and then merged.
+ * Lines with equal keys keep their original order, lines without a valid key are skipped.
+ * @author amagge
+ */
+public class ExternalSorter {
+
+	private static final Logger log = Logger.getLogger("ExternalSorter");
+
+	private final long chunkBytes;
+	private final File tmpDir;
+
+	/**
+	 * @param chunkMB - approximate heap (MB) taken by the lines held in memory at a time
+	 * @param tmpDir - directory for the temporary chunk files
+	 */
+	public ExternalSorter(int chunkMB, File tmpDir) {
+		this.chunkBytes = Math.max(1, chunkMB) * 1024L * 1024L;
+		this.tmpDir = tmpDir;
+	}
+
+	/**
+	 * Checks whether a file is already sorted by a key column
+	 * @param input - tab separated file
+	 * @param keyField - index of the integer key field
+	 * @return true if the keys never decrease, lines starting with # or without a valid key are ignored
+	 * @throws IOException
+	 */
+	public static boolean isSorted(String input, int keyField) throws IOException {
+		try (TsvReader reader = new TsvReader(input)) {
+			long previous = Long.MIN_VALUE;
+			while (reader.next()) {
+				TsvLine line = reader.line();
+				if (line.startsWith('#') || line.fieldCount() <= keyField) {
+					continue;
+				}
+				long key;
+				try {
+					key = line.parseInt(keyField);
+				} catch (NumberFormatException e) {
+					// skipped by the sort as well
+					continue;
+				}
+				if (key < previous) {
+					return false;
+				}
+				previous = key;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts the transformed lines of a file by a key column of the transformed lines
+	 * @param input - tab separated file
+	 * @param output - file for the sorted lines
+	 * @param transform - turns an input line into an output line, or null to drop it
+	 * @param keyField - index of the integer key field in the output lines
+	 * @throws IOException
+	 */
+	public void sort(String input, String output, Function<TsvLine, String> transform, int keyField) throws IOException {
+		List<File> chunks = new ArrayList<File>();
+		List<String> lines = new ArrayList<String>();
+		int[] keys = new int[1024];
+		TsvLine parsed = new TsvLine();
+		long total = 0;
+		long skipped = 0;
+		long bytes = 0;
+		try {
+			try (TsvReader reader = new TsvReader(input)) {
+				while (reader.next()) {
+					String line = transform.apply(reader.line());
+					if (line == null) {
+						continue;
+					}
+					parsed.set(line);
+					if (parsed.fieldCount() <= keyField) {
+						skipped++;
+						continue;
+					}
+					int key;
+					try {
+						key = parsed.parseInt(keyField);
+					} catch (NumberFormatException e) {
+						skipped++;
+						continue;
+					}
+					if (lines.size() == keys.length) {
+						keys = Arrays.copyOf(keys, keys.length * 2);
+					}
+					keys[lines.size()] = key;
+					lines.add(line);
+					total++;
+					bytes += estimateBytes(line);
+					if (bytes >= chunkBytes) {
+						chunks.add(writeChunk(lines, keys));
+						lines.clear();
+						bytes = 0;
+					}
+				}
+			}
+			if (chunks.isEmpty()) {
+				writeSorted(lines, keys, new File(output));
+			} else {
+				if (!lines.isEmpty()) {
+					chunks.add(writeChunk(lines, keys));
+					lines.clear();
+				}
+				merge(chunks, output, keyField);
+			}
+		} finally {
+			for (File chunk : chunks) {
+				if (!chunk.delete()) {
+					log.warning("Could not delete " + chunk);
+				}
+			}
+		}
+		if (skipped > 0) {
+			log.warning("Skipped " + skipped + " lines of " + input + " without a valid key in field " + keyField);
+		}
+		log.info("Sorted " + total + " lines of " + input + " into " + output + " using " + Math.max(1, chunks.size()) + " chunks");
+	}
+
+	/**
+	 * @param line - line held in memory
+	 * @return approximate heap taken by the String and its reference in the list
+	 */
+	private static long estimateBytes(String line) {
+		return 64 + 2L * line.length();
+	}
+
+	private File writeChunk(List<String> lines, int[] keys) throws IOException {
+		File chunk = File.createTempFile("geonames-sort-", ".tsv", tmpDir);
+		chunk.deleteOnExit();
+		writeSorted(lines, keys, chunk);
+		return chunk;
+	}
+
+	private void writeSorted(List<String> lines, int[] keys, File file) throws IOException {
+		// key in the upper and position in the lower half keeps equal keys in order
+		long[] order = new long[lines.size()];
+		for (int i = 0; i < lines.size(); i++) {
+			order[i] = ((long) keys[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		try (Writer writer = newWriter(file)) {
+			for (long entry : order) {
+				writer.write(lines.get((int) entry));
+				writer.write('\n');
+			}
+		}
+	}
+
+	private void merge(List<File> chunks, String output, int keyField) throws IOException {
+		PriorityQueue<Chunk> queue = new PriorityQueue<Chunk>();
+		List<Chunk> open = new ArrayList<Chunk>();
+		try (Writer writer = newWriter(new File(output))) {
+			for (int i = 0; i < chunks.size(); i++) {
+				Chunk chunk = new Chunk(new TsvReader(chunks.get(i).getPath()), i, keyField);
+				open.add(chunk);
+				if (chunk.advance()) {
+					queue.add(chunk);
+				}
+			}
+			while (!queue.isEmpty()) {
+				Chunk chunk = queue.poll();
+				chunk.reader.line().writeTo(writer);
+				writer.write('\n');
+				if (chunk.advance()) {
+					queue.add(chunk);
+				}
+			}
+		} finally {
+			for (Chunk chunk : open) {
+				chunk.reader.close();
+			}
+		}
+	}
+	private static Writer newWriter(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	private static class Chunk implements Comparable<Chunk> {
+		private final TsvReader reader;
+		private final int index;
+		private final int keyField;
+		private int key;
+
+		private Chunk(TsvReader reader, int index, int keyField) {
+			this.reader = reader;
+			this.index = index;
+			this.keyField = keyField;
+		}
+
+		private boolean advance() throws IOException {
+			if (reader.next()) {
+				key = reader.line().parseInt(keyField);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public int compareTo(Chunk other) {
+			int compare = Integer.compare(key, other.key);
+			return compare != 0 ? compare : Integer.compare(index, other.index);
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.DelegatingAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+
+/**
+ * Standard analyzer with the stop words of the index, leaving a gap between the values of a
+ * multi-valued field so a phrase cannot match across two names of a place.
+ * @author amagge
+ */
+public class GeonamesAnalyzer extends DelegatingAnalyzerWrapper {
+
+	private static final int NAME_GAP = 100;
+	private final Analyzer analyzer = new StandardAnalyzer(LuceneWriter.stopWordsOverride);
+
+	public GeonamesAnalyzer() {
+		super(GLOBAL_REUSE_STRATEGY);
+	}
+
+	@Override
+	protected Analyzer getWrappedAnalyzer(String fieldName) {
+		return analyzer;
+	}
+
+	@Override
+	public int getPositionIncrementGap(String fieldName) {
+		return NAME_GAP;
+	}
+
+}
@@ -2,15 +2,27 @@ package edu.asu.zoophy.geonames.indexer;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
-import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriterConfig;
+
 import edu.asu.zoophy.geonames.indexer.geotree.Adm;
 import edu.asu.zoophy.geonames.indexer.geotree.Country;
 import edu.asu.zoophy.geonames.indexer.geotree.GeoNameLocation;
@@ -27,19 +39,90 @@ public class Indexer {
 	static Set<String> featCodeIncl = null;
 	static Set<String> geonameIdsExcl = null;
 	static String geoAllCountriesFile = null;
+	static int indexerThreads = 1;
+	static int indexerBatchSize = 1000;
+	static double indexerRamBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+	static boolean mergeJoin = false;
+	static int sortChunkMB = 256;
+	static String tmpDir = null;
+	static int indexSchema = LuceneWriter.SCHEMA_PACKED;
+	static int indexNameDeletes = 0;
+	static String suggestFile = null;
 	static GeoNamesTree geoTree = null;
 	static LuceneWriter luceneWriter = null;
 
-	public static void createIndex() {
+	/**
+	 * Creates the index from the GeoNames files, an earlier index is only replaced if all records were indexed
+	 * @throws IOException if the records could not be read or indexed
+	 */
+	public static void createIndex() throws IOException {
 		loadProperties();
-		geoTree = GeoNamesTree.getInstance(geonameResourcesDir);
-		luceneWriter =  new LuceneWriter(luceneIndexDir);
+		buildIndex();
+	}
+
+	/**
+	 * Creates the index with the settings already loaded into the fields
+	 * @throws IOException if the records could not be read or indexed
+	 */
+	static void buildIndex() throws IOException {
+		geoTree = GeoNamesTree.getInstance(geonameResourcesDir, mergeJoin);
+		luceneWriter =  new LuceneWriter(luceneIndexDir, indexerRamBufferMB, false, indexSchema, indexNameDeletes);
 		geoAllCountriesFile = geonameResourcesDir + "allCountries.txt";
-		loadAllCountries();
+		try {
+			if (mergeJoin) {
+				loadAllCountriesMerged();
+			} else {
+				loadAllCountries(geoAllCountriesFile, null);
+			}
+		} catch (IOException | RuntimeException e) {
+			luceneWriter.abortWriter();
+			throw e;
+		}
+		luceneWriter.buildSuggester(suggestFile);
 		luceneWriter.exitWriter();
 	}
+
+	/**
+	 * Merge join mode: both dumps are streamed in geonameid order, so only the country
+	 * and admin lookups are held in memory however large the dumps are
+	 * @throws IOException if the dumps could not be sorted or indexed
+	 */
+	private static void loadAllCountriesMerged() throws IOException {
+		List<File> tmpFiles = new ArrayList<File>();
+		try {
+			ExternalSorter sorter = new ExternalSorter(sortChunkMB, new File(tmpDir));
+			String allCountries = geoAllCountriesFile;
+			if (!ExternalSorter.isSorted(allCountries, 0)) {
+				log.info(allCountries + " is not sorted by geonameid, sorting it");
+				File sortedAllCountries = File.createTempFile("allCountries-", ".sorted.txt", new File(tmpDir));
+				tmpFiles.add(sortedAllCountries);
+				sorter.sort(allCountries, sortedAllCountries.getPath(), TsvLine::toString, 0);
+				allCountries = sortedAllCountries.getPath();
+			}
+			File sortedAltNames = File.createTempFile("alternateNames-", ".sorted.txt", new File(tmpDir));
+			tmpFiles.add(sortedAltNames);
+			// keep only "geonameid TAB name" of the names that would be loaded into the lookup
+			sorter.sort(geonameResourcesDir + "alternateNamesV2.txt", sortedAltNames.getPath(), altName -> {
+				if (!GeoNamesTree.isIndexedAltName(altName)) {
+					return null;
+				}
+				try {
+					return altName.parseInt(1) + "\t" + altName.field(3);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}, 0);
+			loadAllCountries(allCountries, sortedAltNames.getPath());
+		} finally {
+			for (File tmpFile : tmpFiles) {
+				if (!tmpFile.delete()) {
+					log.warning("Could not delete " + tmpFile);
+				}
+			}
+		}
+	}
 	
-	private static void loadProperties() {
+	static void loadProperties() {
 		Properties prop = new Properties();
 		InputStream input = null;
 		try {
@@ -55,6 +138,19 @@ public class Indexer {
 			featCodeIncl = getPropAsSet(featCodeInclProp);
 			featCodeExcl = getPropAsSet(featCodeExclProp);
 			geonameIdsExcl = getPropAsSet(geonameIdsExclProp);
+			indexerThreads = Integer.parseInt(prop.getProperty("geonames.indexer.threads", "0"));
+			if (indexerThreads <= 0) {
+				indexerThreads = Runtime.getRuntime().availableProcessors();
+			}
+			indexerBatchSize = Integer.parseInt(prop.getProperty("geonames.indexer.batch.size", "1000"));
+			indexerRamBufferMB = Double.parseDouble(prop.getProperty("geonames.indexer.ram.buffer.mb",
+					String.valueOf(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB)));
+			mergeJoin = prop.getProperty("geonames.indexer.mode", "lookup").equalsIgnoreCase("merge");
+			sortChunkMB = Integer.parseInt(prop.getProperty("geonames.indexer.sort.chunk.mb", "256"));
+			tmpDir = prop.getProperty("geonames.indexer.tmp.dir", System.getProperty("java.io.tmpdir"));
+			indexSchema = Integer.parseInt(prop.getProperty("geonames.index.schema", String.valueOf(LuceneWriter.SCHEMA_PACKED)));
+			indexNameDeletes = Integer.parseInt(prop.getProperty("geonames.index.name.deletes", "0"));
+			suggestFile = prop.getProperty("lucene.suggest.location", "index/suggest.bin");
 		} catch (IOException ex) {
 			ex.printStackTrace();
 		} finally {
@@ -76,74 +172,196 @@ public class Indexer {
 		return codes;
 	}
 
-	private static void loadAllCountries() {
-		int count = 0, increments = 500000, limit = -1;
-		try {
-			File geoFile = new File(geoAllCountriesFile);
-			Scanner scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				String record = scan.nextLine().trim();
-				if(record.split("\t").length==19){
-					String geonameId = record.split("\t")[0];
-					String typeClass = record.split("\t")[6];
-					String typeCode = record.split("\t")[7];
-					// Do not process if not necessary
-					if((featClassExcl.contains(typeClass) && !featCodeIncl.contains(typeCode))
-							|| featCodeExcl.contains(typeCode) || geonameIdsExcl.contains(geonameId)){
-						continue;
+	/**
+	 * Indexes allCountries.txt as a pipeline: this thread reads and filters batches of lines
+	 * while worker threads parse them and add them to the shared IndexWriter.
+	 * If a worker fails, reading stops and the failure is thrown once all workers are done,
+	 * so the index is not committed with batches missing.
+	 * @param allCountriesFile - allCountries.txt, sorted by geonameid if sortedAltNamesFile is given
+	 * @param sortedAltNamesFile - alternate names to merge join by geonameid, or null to use the lookup
+	 * @throws IOException if the file could not be read or a batch could not be indexed
+	 */
+	static void loadAllCountries(String allCountriesFile, String sortedAltNamesFile) throws IOException {
+		final int increments = 500000, limit = -1;
+		final AtomicLong count = new AtomicLong();
+		final long start = System.currentTimeMillis();
+		final List<Record> endOfFile = new ArrayList<Record>();
+		final BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<List<Record>>(indexerThreads * 2);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		ExecutorService workers = Executors.newFixedThreadPool(indexerThreads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		log.info("Indexing " + allCountriesFile + " with " + indexerThreads + " threads in batches of " + indexerBatchSize);
+		for (int i = 0; i < indexerThreads; i++) {
+			results.add(workers.submit(() -> {
+				TsvLine record = new TsvLine();
+				while (true) {
+					List<Record> batch;
+					try {
+						batch = queue.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return null;
+					}
+					if (batch == endOfFile) {
+						return null;
 					}
-					GeoNameLocation geoNameLoc = getGeoNameLocation(record);
-					if(geoNameLoc != null){
-						luceneWriter.indexRecord(geoNameLoc);
-						count++;
-						if(count % increments == 0) {
-							log.info("allCountries.txt count: "+ count);
+					try {
+						List<Document> documents = new ArrayList<Document>(batch.size());
+						for (Record line : batch) {
+							record.set(line.line);
+							GeoNameLocation geoNameLoc = getGeoNameLocation(record, line.altNames);
+							Document document = geoNameLoc == null ? null : luceneWriter.getDocument(geoNameLoc);
+							if (document != null) {
+								documents.add(document);
+							}
 						}
+						luceneWriter.indexDocuments(documents);
+						long total = count.addAndGet(documents.size());
+						if (total / increments != (total - documents.size()) / increments) {
+							long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+							log.info("allCountries.txt count: "+ total + " (" + total / seconds + " records/s)");
+						}
+					} catch (Throwable t) {
+						// the reader stops handing out batches
+						failure.compareAndSet(null, t);
+						throw t;
 					}
-					if(limit > 0 && count >= limit) {
+				}
+			}));
+		}
+		try (TsvReader reader = new TsvReader(allCountriesFile);
+				SortedAltNamesReader altNamesReader = sortedAltNamesFile == null ? null : new SortedAltNamesReader(sortedAltNamesFile)) {
+			List<Record> batch = new ArrayList<Record>(indexerBatchSize);
+			while (failure.get() == null && reader.next()) {
+				TsvLine record = reader.line();
+				// Strings are only created for the records that are indexed
+				if (!isIndexable(record)) {
+					continue;
+				}
+				Set<String> altNames = null;
+				if (altNamesReader != null) {
+					try {
+						altNames = altNamesReader.namesFor(record.parseInt(0));
+					} catch (NumberFormatException e) {
+						log.warning("Error parsing GeonameId of: " + record);
+						continue;
+					}
+				}
+				batch.add(new Record(record.toString(), altNames));
+				if (batch.size() == indexerBatchSize) {
+					hand(queue, batch, failure);
+					batch = new ArrayList<Record>(indexerBatchSize);
+					if(limit > 0 && count.get() >= limit) {
 						break;
 					}
-				} else {
-					log.info("------error: String size too long");
-					log.info("length: "+ record.split("\t").length +" String: "+ record.substring(0, 10) );
 				}
 			}
-			scan.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			if (!batch.isEmpty()) {
+				hand(queue, batch, failure);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		} finally {
+			for (int i = 0; i < indexerThreads; i++) {
+				try {
+					hand(queue, endOfFile, failure);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (failure.get() == null) {
+				workers.shutdown();
+			} else {
+				// batches left are not indexed, workers waiting for one are interrupted
+				queue.clear();
+				workers.shutdownNow();
+			}
+			for (Future<?> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					failure.compareAndSet(null, e);
+				}
+			}
+		}
+		if (failure.get() != null) {
+			throw new IOException("Indexing " + allCountriesFile + " failed after " + count.get() + " records: "
+					+ failure.get().getMessage(), failure.get());
+		}
+		long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+		log.info("----------AllCountries.txt completed, count: "+ count.get() + " in " + seconds + "s (" + count.get() / seconds + " records/s)");
+	}
+
+	/**
+	 * Puts a batch in the queue, waiting while it is full unless a worker has failed
+	 * @param queue - queue of the workers
+	 * @param batch - batch of records or the end of the file
+	 * @param failure - failure of a worker, the batch is dropped once set
+	 * @throws InterruptedException
+	 */
+	private static void hand(BlockingQueue<List<Record>> queue, List<Record> batch, AtomicReference<Throwable> failure)
+			throws InterruptedException {
+		while (failure.get() == null && !queue.offer(batch, 1, TimeUnit.SECONDS)) {
+			// waits for the workers until one of them fails
 		}
-		log.info("----------AllCountries.txt completed, count: "+ count);
 	}
 
-	private static GeoNameLocation getGeoNameLocation(String record) {
+	/**
+	 * Filters a line of allCountries.txt on its fields without creating any Strings
+	 * @param record - line of allCountries.txt
+	 * @return true if the record should be indexed
+	 */
+	static boolean isIndexable(TsvLine record) {
+		if(record.fieldCount()==19){
+			// Do not process if not necessary
+			if((record.fieldIn(6, featClassExcl) && !record.fieldIn(7, featCodeIncl))
+					|| record.fieldIn(7, featCodeExcl) || record.fieldIn(0, geonameIdsExcl)){
+				return false;
+			}
+			return true;
+		} else {
+			String line = record.toString();
+			log.info("------error: String size too long");
+			log.info("length: "+ record.fieldCount() +" String: "+ line.substring(0, Math.min(10, line.length())) );
+			return false;
+		}
+	}
+
+	/**
+	 * @param geoname - record of allCountries.txt
+	 * @param joinedAltNames - alternate names from the merge join, or null to use the lookup
+	 * @return location or null if the record could not be parsed
+	 */
+	static GeoNameLocation getGeoNameLocation(TsvLine geoname, Set<String> joinedAltNames) {
 		GeoNameLocation geoNameLoc = null;
 		try{
-			String[] geoname = record.split("\t"); 
-			int id = Integer.parseInt(geoname[0]);
-			String name = geoname[1];
-			String asciiname = geoname[2];
+			int id = geoname.parseInt(0);
+			String name = geoname.field(1);
+			String asciiname = geoname.field(2);
 			// We'll use specific alternate names
-			// Set<String> alternatenames = new HashSet<String>(Arrays.asList(geoname[3].split(",")));
-			Double latitude = Double.parseDouble(geoname[4]);
-			Double longitude = Double.parseDouble(geoname[5]);
-			String typeClass = geoname[6];
-			String typeCode = geoname[7];
-			String countrycode = geoname[8];
-			String adm1 = geoname[10];
-			String adm2 = geoname[11]; 
-			String population = geoname[14];
+			// Set<String> alternatenames = new HashSet<String>(Arrays.asList(geoname.field(3).split(",")));
+			double latitude = geoname.parseDouble(4);
+			double longitude = geoname.parseDouble(5);
+			String typeClass = geoname.field(6);
+			String typeCode = geoname.field(7);
+			String countrycode = geoname.field(8);
+			String adm1 = geoname.field(10);
+			String adm2 = geoname.field(11);
+			String population = geoname.field(14);
 
 			//Load specific alternate names i.e. english, abbrv etc.
-			Set<String> alternatenames = null;
-			if(geoTree.getAltNamesLookup().containsKey(id)){
-				alternatenames = geoTree.getAltNamesLookup().get(id);
-			} else {
+			Set<String> alternatenames = joinedAltNames != null ? joinedAltNames : geoTree.getAltNamesLookup().get(id);
+			if(alternatenames == null){
 				alternatenames = new HashSet<String>();
 			}
 			
 			//Some continents don't have population, so better calculate them
 			if (typeCode.equals("CONT") && population.equals("0")){
-				String[] countries = geoname[9].split(",");
+				String[] countries = geoname.field(9).split(",");
 				int totalPop = 0;
 				for (String ccode : countries) {
 					if(geoTree.getCountryLookup().containsKey(ccode)){
@@ -182,6 +400,17 @@ public class Indexer {
 				}
 			}
 
+			//Records of countries and admin units also get the names added by their lookups
+			if (geoNameLoc.getCountry() != null && geoNameLoc.getCountry().getId() == id) {
+				alternatenames.addAll(geoNameLoc.getCountry().getAlternatenames());
+			}
+			if (geoNameLoc.getState() != null && geoNameLoc.getState().getId() == id) {
+				alternatenames.addAll(geoNameLoc.getState().getAlternatenames());
+			}
+			if (geoNameLoc.getCounty() != null && geoNameLoc.getCounty().getId() == id) {
+				alternatenames.addAll(geoNameLoc.getCounty().getAlternatenames());
+			}
+
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -189,4 +418,17 @@ public class Indexer {
 		return geoNameLoc;
 	}
 
+	/**
+	 * Line of allCountries.txt handed to the indexing threads
+	 */
+	private static class Record {
+		private final String line;
+		private final Set<String> altNames;
+
+		private Record(String line, Set<String> altNames) {
+			this.line = line;
+			this.altNames = altNames;
+		}
+	}
+
 }
@@ -2,24 +2,40 @@ package edu.asu.zoophy.geonames.indexer;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
@@ -29,24 +45,92 @@ import edu.asu.zoophy.geonames.indexer.geotree.GeoNameLocation;
 public class LuceneWriter {
 	public static final List<String> stops = Arrays.asList("and", "of", "the", "state", "province", "county", "area", "region", "prefecture"); 
 	public static final CharArraySet stopWordsOverride = new CharArraySet(stops, true);
+	// Order of the search results, the index is sorted the same way so searches can stop early
+	public static final Sort populationSort = new Sort(new SortField("Population", SortField.Type.LONG, true));
+	// Layout of the documents, kept in the commit data of the index under this key
+	public static final String SCHEMA_KEY = "schema";
+	// Names and alternate names packed into one "Name (alt1, alt2)" value per field
+	public static final int SCHEMA_PACKED = 1;
+	// Plain stored names, alternate names as separate values of the AltName and AncestorsNames fields
+	public static final int SCHEMA_ALT_NAMES = 2;
+	// Edit distance covered by the NameDeletes field, kept in the commit data under this key
+	public static final String NAME_DELETES_KEY = "nameDeletes";
+	// Separates the key from the word in NameDeletes terms, analyzed words do not contain it
+	public static final String NAME_DELETES_SEPARATOR = "|";
 	// If you don't want to use stop words, use the following line instead
 	// CharArraySet stopWordsOverride = new CharArraySet(Collections.emptySet(), true);
 
 	private static IndexWriter writer = null;
+	private final boolean append;
+	private int schema;
+	private int nameDeletes;
+	private final Analyzer analyzer = new GeonamesAnalyzer();
 	private static final Logger log = Logger.getLogger("writeToLucene");
 	
 	public LuceneWriter(String pathToIndex) {
-		log.info("Creating Lucene Indexer at '" + pathToIndex + "'");
-		setupWriter(pathToIndex);
+		this(pathToIndex, IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
 	}
 
-	private void setupWriter(String pathToIndex) {
+	/**
+	 * @param pathToIndex - directory of the index to be created
+	 * @param ramBufferSizeMB - memory shared by the indexing threads before segments are flushed
+	 */
+	public LuceneWriter(String pathToIndex, double ramBufferSizeMB) {
+		this(pathToIndex, ramBufferSizeMB, false);
+	}
+
+	/**
+	 * @param pathToIndex - directory of the index
+	 * @param ramBufferSizeMB - memory shared by the indexing threads before segments are flushed
+	 * @param append - update the documents of an existing index instead of creating a new one
+	 */
+	public LuceneWriter(String pathToIndex, double ramBufferSizeMB, boolean append) {
+		this(pathToIndex, ramBufferSizeMB, append, SCHEMA_PACKED);
+	}
+
+	/**
+	 * @param pathToIndex - directory of the index
+	 * @param ramBufferSizeMB - memory shared by the indexing threads before segments are flushed
+	 * @param append - update the documents of an existing index instead of creating a new one
+	 * @param schema - layout of the documents of a new index, an existing index keeps its own
+	 */
+	public LuceneWriter(String pathToIndex, double ramBufferSizeMB, boolean append, int schema) {
+		this(pathToIndex, ramBufferSizeMB, append, schema, 0);
+	}
+
+	/**
+	 * @param pathToIndex - directory of the index
+	 * @param ramBufferSizeMB - memory shared by the indexing threads before segments are flushed
+	 * @param append - update the documents of an existing index instead of creating a new one
+	 * @param schema - layout of the documents of a new index, an existing index keeps its own
+	 * @param nameDeletes - edit distance covered by the NameDeletes field of a new index, 0 leaves it out
+	 */
+	public LuceneWriter(String pathToIndex, double ramBufferSizeMB, boolean append, int schema, int nameDeletes) {
+		this.append = append;
+		this.schema = schema;
+		this.nameDeletes = nameDeletes;
+		log.info((append ? "Updating" : "Creating") + " Lucene Indexer at '" + pathToIndex + "'");
+		setupWriter(pathToIndex, ramBufferSizeMB);
+	}
+
+	private void setupWriter(String pathToIndex, double ramBufferSizeMB) {
 		try {
 			Directory dir = FSDirectory.open(Paths.get(pathToIndex));
-			Analyzer analyzer = new StandardAnalyzer(stopWordsOverride);
 			IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-			iwc.setOpenMode(OpenMode.CREATE);
+			iwc.setOpenMode(append ? OpenMode.APPEND : OpenMode.CREATE);
+			iwc.setIndexSort(append ? getIndexSort(dir) : populationSort);
+			iwc.setRAMBufferSizeMB(ramBufferSizeMB);
 			writer = new IndexWriter(dir, iwc);
+			if (append) {
+				schema = getCommitValue(writer, SCHEMA_KEY, SCHEMA_PACKED);
+				nameDeletes = getCommitValue(writer, NAME_DELETES_KEY, 0);
+			} else {
+				Map<String, String> commitData = new HashMap<String, String>();
+				commitData.put(SCHEMA_KEY, String.valueOf(schema));
+				commitData.put(NAME_DELETES_KEY, String.valueOf(nameDeletes));
+				writer.setLiveCommitData(commitData.entrySet());
+			}
+			log.info("Index schema: " + schema + ", name deletes: " + nameDeletes);
 		} catch (Exception e){
 			e.printStackTrace();
 			log.info("error: "+e);
@@ -54,6 +138,53 @@ public class LuceneWriter {
 		}
 	}
 
+	/**
+	 * @param dir - directory of an existing index
+	 * @return sort of the existing index, which new segments have to follow, or null if it is not sorted
+	 * @throws IOException
+	 */
+	private static Sort getIndexSort(Directory dir) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(dir)) {
+			List<LeafReaderContext> leaves = reader.leaves();
+			return leaves.isEmpty() ? null : leaves.get(0).reader().getMetaData().getSort();
+		}
+	}
+
+	/**
+	 * @param writer - writer of an existing index
+	 * @param key - key of the setting in the commit data
+	 * @param defaultValue - value for indexes created before the setting was recorded
+	 * @return setting the index was created with
+	 */
+	private static int getCommitValue(IndexWriter writer, String key, int defaultValue) {
+		Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+		if (commitData != null) {
+			for (Map.Entry<String, String> entry : commitData) {
+				if (entry.getKey().equals(key)) {
+					return Integer.parseInt(entry.getValue());
+				}
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Builds the name suggestions from the documents written so far, before they are committed, so that
+	 * the suggestions are in place once the searchers see the new version
+	 * @param suggestFile - file the suggestions are saved to, none are built if null or empty
+	 */
+	public void buildSuggester(String suggestFile) {
+		if (suggestFile == null || suggestFile.trim().isEmpty()) {
+			return;
+		}
+		try (DirectoryReader reader = DirectoryReader.open(writer)) {
+			NameSuggester.build(reader, Paths.get(suggestFile.trim()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.info("error building the suggestions: "+e);
+		}
+	}
+
 	public void exitWriter() {
 		try {
 			writer.close();
@@ -63,6 +194,18 @@ public class LuceneWriter {
 		}
 	}
 
+	/**
+	 * Closes the writer without committing, the index stays as it was at its last commit
+	 */
+	public void abortWriter() {
+		try {
+			writer.rollback();
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.info("error: "+e);
+		}
+	}
+
 	public void indexRecords(List<GeoNameLocation> geoNameLocs) {
 		int count = 0,increments = 500000 ;
 		for(GeoNameLocation geoNameLoc : geoNameLocs) {
@@ -75,6 +218,52 @@ public class LuceneWriter {
 	}
 
 	public void indexRecord(GeoNameLocation geoNameLoc) {
+		Document doc = getDocument(geoNameLoc);
+		if (doc != null) {
+			try {
+				writer.addDocument(doc);
+			} catch (Exception e){
+				log.info("error: "+ e.getMessage() + " for " + geoNameLoc);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Adds documents to the index, safe to call from several threads at once.
+	 * When appending, documents replace those with the same GeonameId.
+	 * @param docs - documents created by {@link #getDocument(GeoNameLocation)}
+	 * @throws IOException
+	 */
+	public void indexDocuments(List<Document> docs) throws IOException {
+		if (append) {
+			for (Document doc : docs) {
+				writer.updateDocument(new Term("GeonameId", doc.get("GeonameId")), doc);
+			}
+		} else {
+			writer.addDocuments(docs);
+		}
+	}
+
+	/**
+	 * @param geonameIds - ids of the documents to remove from the index
+	 * @throws IOException
+	 */
+	public void deleteDocuments(Collection<Integer> geonameIds) throws IOException {
+		Term[] terms = new Term[geonameIds.size()];
+		int i = 0;
+		for (int id : geonameIds) {
+			terms[i++] = new Term("GeonameId", String.valueOf(id));
+		}
+		writer.deleteDocuments(terms);
+	}
+
+	/**
+	 * Creates the Lucene document for a location, does not modify the location's lookups
+	 * @param geoNameLoc - location to be indexed
+	 * @return document or null if it could not be created
+	 */
+	public Document getDocument(GeoNameLocation geoNameLoc) {
 		try {
 			// Main document object for indexing
 			Document doc = new Document();
@@ -82,6 +271,10 @@ public class LuceneWriter {
 			
 			StringBuilder ancestorsNames = new StringBuilder();
 			StringBuilder ancestorsIds = new StringBuilder();
+			List<String> ancestorIds = new ArrayList<String>();
+			// plain names and every name of the ancestors for the alternate names schema
+			List<String> ancestorsPlainNames = new ArrayList<String>();
+			Set<String> ancestorsAllNames = new LinkedHashSet<String>();
 			
 			//Normalize names and formats for indexing
 			String id = String.valueOf(geoNameLoc.getId());
@@ -107,23 +300,34 @@ public class LuceneWriter {
 
 			String longitude = String.valueOf(geoNameLoc.getLongitude());
 			doc.add(new StringField("Longitude", longitude, Field.Store.YES));
+
+			// indexed for reverse geocoding, the coordinates are stored above
+			if (Math.abs(geoNameLoc.getLatitude()) <= 90 && Math.abs(geoNameLoc.getLongitude()) <= 180) {
+				doc.add(new LatLonPoint("Location", geoNameLoc.getLatitude(), geoNameLoc.getLongitude()));
+				doc.add(new LatLonDocValuesField("Location", geoNameLoc.getLatitude(), geoNameLoc.getLongitude()));
+			}
 			
 			//Add county if available
 			if(geoNameLoc.getCounty() != null){
 				String adm = String.valueOf(geoNameLoc.getCounty().getName());
-				Set<String> countyAltNames = geoNameLoc.getCounty().getAlternatenames();
+				Set<String> countyAltNames = new HashSet<String>(geoNameLoc.getCounty().getAlternatenames());
 				String admId = String.valueOf(geoNameLoc.getCounty().getId());
+				String plainAdm = cleanName(admId, adm);
 				adm = getAlternateNamesStr(admId, adm, countyAltNames);
-				doc.add(new TextField("County", adm, Field.Store.YES));
+				doc.add(new TextField("County", schema == SCHEMA_PACKED ? adm : plainAdm, Field.Store.YES));
 				doc.add(new StringField("ADM2", admId, Field.Store.YES));
 				ancestorsNames.append(adm + ", ");
 				ancestorsIds.append(admId + ", ");
+				ancestorIds.add(admId);
+				ancestorsPlainNames.add(plainAdm);
+				ancestorsAllNames.add(plainAdm);
+				ancestorsAllNames.addAll(countyAltNames);
 			}
 			
 			//Add state if available
 			if(geoNameLoc.getState() != null){
 				String adm = geoNameLoc.getState().getName();
-				Set<String> stateAltNames = geoNameLoc.getState().getAlternatenames();
+				Set<String> stateAltNames = new HashSet<String>(geoNameLoc.getState().getAlternatenames());
 				stateAltNames.add(adm);
 				String stateCode = geoNameLoc.getState().getCode().split("\\.")[1];
 				if(stateCode.matches("[A-Z]{2,5}")){
@@ -133,20 +337,24 @@ public class LuceneWriter {
 					alternateNames.addAll(stateAltNames);
 				}
 				//Add field with alt names
+				String plainAdm = cleanName(id, adm);
 				adm = getAlternateNamesStr(id, adm, stateAltNames);
 				String admId = String.valueOf(geoNameLoc.getState().getId());
-				doc.add(new TextField("State", adm, Field.Store.YES));
+				doc.add(new TextField("State", schema == SCHEMA_PACKED ? adm : plainAdm, Field.Store.YES));
 				doc.add(new StringField("ADM1", admId, Field.Store.YES));
 				if (!typeCode.equalsIgnoreCase("ADM1")){
 					ancestorsNames.append(adm + ", ");
 					ancestorsIds.append(admId + ", ");
+					ancestorIds.add(admId);
+					ancestorsPlainNames.add(plainAdm);
+					ancestorsAllNames.addAll(stateAltNames);
 				}
 			}
 			
 			//Add country if not a continent itself
 			if(geoNameLoc.getCountry() != null){
 				String country = String.valueOf(geoNameLoc.getCountry().getName());
-				Set<String> countryAltNames = geoNameLoc.getCountry().getAlternatenames();
+				Set<String> countryAltNames = new HashSet<String>(geoNameLoc.getCountry().getAlternatenames());
 				countryAltNames.add(country);
 				countryAltNames.add(geoNameLoc.getCountry().getIso());
 				countryAltNames.add(geoNameLoc.getCountry().getIso3());
@@ -156,10 +364,15 @@ public class LuceneWriter {
 				doc.add(new TextField("Country", country, Field.Store.YES));
 				String countryId = String.valueOf(geoNameLoc.getCountry().getId());
 				doc.add(new StringField("PCL", countryId, Field.Store.YES));
+				String plainCountry = cleanName(countryId, country);
 				country = getAlternateNamesStr(countryId, country, countryAltNames);
 				if (!typeCode.equalsIgnoreCase("PCLI")){
 					ancestorsNames.append(country + ", ");
 					ancestorsIds.append(countryId + ", ");
+					ancestorIds.add(countryId);
+					ancestorsPlainNames.add(plainCountry);
+					ancestorsAllNames.add(plainCountry);
+					ancestorsAllNames.addAll(countryAltNames);
 				}
 				// Get Continent Info
 				String continent = geoNameLoc.getCountry().getContinentName();
@@ -167,30 +380,62 @@ public class LuceneWriter {
 				doc.add(new TextField("Continent", continent, Field.Store.YES));
 				ancestorsNames.append(continent);
 				ancestorsIds.append(continentId);
+				ancestorIds.add(continentId);
+				ancestorsPlainNames.add(continent);
+				ancestorsAllNames.add(continent);
 				//create ancestors for easy querying
-				doc.add(new TextField("AncestorsNames", ancestorsNames.toString(), Field.Store.YES));
-				doc.add(new TextField("AncestorsIds", ancestorsIds.toString(), Field.Store.YES));
+				if (schema == SCHEMA_PACKED) {
+					doc.add(new TextField("AncestorsNames", ancestorsNames.toString(), Field.Store.YES));
+				} else {
+					doc.add(new StoredField("AncestorsNames", String.join(", ", ancestorsPlainNames)));
+					for (String ancestorName : ancestorsAllNames) {
+						doc.add(new TextField("AncestorsNames", ancestorName, Field.Store.NO));
+					}
+				}
+				// stored as before, each id indexed whole for the hierarchy join rather than as analyzed tokens
+				doc.add(new StoredField("AncestorsIds", ancestorsIds.toString()));
+				for (String ancestorId : ancestorIds) {
+					doc.add(new StringField("AncestorsIds", ancestorId, Field.Store.NO));
+				}
 			} else {
 				//Check when it is not a country or continent or major region
 				print = true;
 			}
 			
 			//Finally add the name field
+			String primaryName = cleanName(id, name);
 			name = getAlternateNamesStr(id, name, alternateNames);
-			doc.add(new TextField("Name", name, Field.Store.YES));
+			if (schema == SCHEMA_PACKED) {
+				doc.add(new TextField("Name", name, Field.Store.YES));
+			} else {
+				doc.add(new TextField("Name", primaryName, Field.Store.YES));
+				for (String alternateName : alternateNames) {
+					if (!alternateName.equalsIgnoreCase(primaryName)) {
+						doc.add(new TextField("AltName", alternateName, Field.Store.NO));
+					}
+				}
+			}
+			// each name on its own, for lookups of the whole name rather than a phrase in it
+			Set<String> exactNames = new HashSet<String>();
+			exactNames.add(normalizeName(primaryName));
+			for (String alternateName : alternateNames) {
+				exactNames.add(normalizeName(alternateName));
+			}
+			exactNames.remove("");
+			for (String exactName : exactNames) {
+				doc.add(new StringField("ExactName", exactName, Field.Store.NO));
+			}
+			if (nameDeletes > 0) {
+				addNameDeletes(doc, primaryName, alternateNames);
+			}
+			// the full hierarchy is only searched, the stored names already hold it
+			Field.Store storeHierarchy = schema == SCHEMA_PACKED ? Field.Store.YES : Field.Store.NO;
 			if (ancestorsNames.toString() != ""){
-				doc.add(new TextField("FullHierarchy", name + ", " + ancestorsNames.toString(), Field.Store.YES));
+				doc.add(new TextField("FullHierarchy", name + ", " + ancestorsNames.toString(), storeHierarchy));
 			} else {
-				doc.add(new TextField("FullHierarchy", name, Field.Store.YES));
+				doc.add(new TextField("FullHierarchy", name, storeHierarchy));
 			}
 
-			// add all alternate names individually for strict search
-			// doc.add(new TextField("Name", name, Field.Store.YES));
-			// List<String> altNameList = getAlternateNamesList(id, name, alternateNames);
-			// for(String altName : altNameList) {
-			// 	doc.add(new TextField("AltName", altName, Field.Store.YES));
-			// }
-
 			if(print){
 				for(IndexableField field: doc.getFields()){
 					System.out.print(field.name() + ":" + field.stringValue() + ", ");
@@ -198,14 +443,81 @@ public class LuceneWriter {
 				System.out.println();
 			}
 
-			//Create fields and index to lucene
-			writer.addDocument(doc);
+			return doc;
 		} catch (Exception e){
 			log.info("error: "+ e.getMessage() + " for " + geoNameLoc);
 			e.printStackTrace();
+			return null;
 		}
 	}
 
+	/**
+	 * Indexes "key|word" for every word of the names and every key left after deleting up to
+	 * nameDeletes characters from it, so words close to a misspelled word can be found by seeking
+	 * the keys of the misspelled word instead of scanning all terms
+	 */
+	private void addNameDeletes(Document doc, String name, Set<String> alternateNames) throws IOException {
+		Set<String> words = new HashSet<String>();
+		addWords(words, name);
+		for (String alternateName : alternateNames) {
+			addWords(words, alternateName);
+		}
+		Set<String> entries = new HashSet<String>();
+		for (String word : words) {
+			for (String key : getDeleteKeys(word, nameDeletes)) {
+				entries.add(key + NAME_DELETES_SEPARATOR + word);
+			}
+		}
+		for (String entry : entries) {
+			doc.add(new StringField("NameDeletes", entry, Field.Store.NO));
+		}
+	}
+
+	private void addWords(Set<String> words, String text) throws IOException {
+		try (TokenStream tokenStream = analyzer.tokenStream("Name", text)) {
+			CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+			tokenStream.reset();
+			while (tokenStream.incrementToken()) {
+				words.add(termAttribute.toString());
+			}
+			tokenStream.end();
+		}
+	}
+
+	/**
+	 * @param word - analyzed word
+	 * @param maxDeletes - maximum number of characters deleted
+	 * @return the word and every non-empty string left after deleting up to maxDeletes of its characters
+	 */
+	public static Set<String> getDeleteKeys(String word, int maxDeletes) {
+		Set<String> keys = new HashSet<String>();
+		keys.add(word);
+		Set<String> level = keys;
+		for (int deletes = 0; deletes < maxDeletes; deletes++) {
+			Set<String> next = new HashSet<String>();
+			for (String key : level) {
+				if (key.length() < 2) {
+					continue;
+				}
+				for (int i = 0; i < key.length(); i++) {
+					next.add(key.substring(0, i) + key.substring(i + 1));
+				}
+			}
+			keys.addAll(next);
+			level = next;
+		}
+		return keys;
+	}
+
+	/**
+	 * Form of a name in the ExactName field, searches have to normalize their input the same way
+	 * @param name - name of a place
+	 * @return name in lower case with single spaces
+	 */
+	public static String normalizeName(String name) {
+		return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+	}
+
 	private String getAlternateNamesStr(String id, String name, Set<String> altNames){
 		// Customize names if necessary
 		name = cleanName(id, name);
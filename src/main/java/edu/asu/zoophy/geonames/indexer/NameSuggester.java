@@ -0,0 +1,211 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Prefix suggestions of place names. Every name and alternate name in the ExactName field is
+ * suggested for the most populated place with that name, weighted by its population; the geonameid
+ * and the stored name of the place are kept as the payload.
+ * @author amagge
+ */
+public class NameSuggester {
+
+	private static final Logger log = Logger.getLogger("NameSuggester");
+	// separates the geonameid from the name in the payload
+	public static final char PAYLOAD_SEPARATOR = '\t';
+
+	private NameSuggester() {
+	}
+
+	private static AnalyzingSuggester newSuggester(Directory tempDir) {
+		// stop words are kept, a prefix may end in one
+		return new AnalyzingSuggester(tempDir, "suggest", new StandardAnalyzer(CharArraySet.EMPTY_SET));
+	}
+
+	/**
+	 * Builds the suggester from the names of an index and saves it, replacing an earlier file only once complete
+	 * @param reader - reader of the index
+	 * @param file - file the suggester is saved to
+	 * @throws IOException
+	 */
+	public static void build(IndexReader reader, Path file) throws IOException {
+		long start = System.currentTimeMillis();
+		Path tempDir = Files.createTempDirectory("suggest");
+		try (Directory directory = FSDirectory.open(tempDir)) {
+			AnalyzingSuggester suggester = newSuggester(directory);
+			suggester.build(new NameIterator(reader));
+			Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			try (OutputStream output = Files.newOutputStream(tempFile)) {
+				suggester.store(output);
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Built suggestions for " + suggester.getCount() + " names in "
+					+ (System.currentTimeMillis() - start) + " ms at '" + file + "'");
+		} finally {
+			IOUtils.rm(tempDir);
+		}
+	}
+
+	/**
+	 * @param file - file the suggester was saved to
+	 * @return suggester ready for lookups
+	 * @throws IOException
+	 */
+	public static AnalyzingSuggester load(Path file) throws IOException {
+		AnalyzingSuggester suggester = newSuggester(null);
+		try (InputStream input = Files.newInputStream(file)) {
+			suggester.load(input);
+		}
+		return suggester;
+	}
+
+	/**
+	 * Iterates the ExactName terms in order, each with the most populated place having that name
+	 */
+	private static class NameIterator implements InputIterator {
+
+		private final IndexReader reader;
+		private final TermsEnum termsEnum;
+		private final Bits liveDocs;
+		private final long[] populations;
+		private final Set<String> fields = new HashSet<String>(Arrays.asList("GeonameId", "Name"));
+		private PostingsEnum postings;
+		private long weight;
+		private BytesRef payload;
+
+		NameIterator(IndexReader reader) throws IOException {
+			this.reader = reader;
+			Terms terms = MultiTerms.getTerms(reader, "ExactName");
+			if (terms == null) {
+				log.warning("Index has no ExactName field, it has to be created again for suggestions");
+			}
+			this.termsEnum = terms == null ? null : terms.iterator();
+			this.liveDocs = MultiBits.getLiveDocs(reader);
+			this.populations = getPopulations(reader);
+		}
+
+		@Override
+		public BytesRef next() throws IOException {
+			if (termsEnum == null) {
+				return null;
+			}
+			for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+				if (!isSuggestable(term)) {
+					continue;
+				}
+				postings = termsEnum.postings(postings, PostingsEnum.NONE);
+				int best = -1;
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					if ((liveDocs == null || liveDocs.get(doc)) && (best == -1 || populations[doc] > populations[best])) {
+						best = doc;
+					}
+				}
+				if (best == -1) {
+					continue;
+				}
+				DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fields);
+				reader.document(best, visitor);
+				Document document = visitor.getDocument();
+				payload = new BytesRef(document.get("GeonameId") + PAYLOAD_SEPARATOR + document.get("Name"));
+				// the suggester only takes int weights
+				weight = Math.min(populations[best], Integer.MAX_VALUE);
+				return term;
+			}
+			return null;
+		}
+
+		/**
+		 * The suggester reserves the separator characters below space
+		 */
+		private static boolean isSuggestable(BytesRef term) {
+			for (int i = term.offset; i < term.offset + term.length; i++) {
+				if ((term.bytes[i] & 0xff) < 0x20) {
+					return false;
+				}
+			}
+			return term.length > 0;
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		@Override
+		public BytesRef payload() {
+			return payload;
+		}
+
+		@Override
+		public boolean hasPayloads() {
+			return true;
+		}
+
+		@Override
+		public Set<BytesRef> contexts() {
+			return null;
+		}
+
+		@Override
+		public boolean hasContexts() {
+			return false;
+		}
+
+		private static long[] getPopulations(IndexReader reader) throws IOException {
+			long[] populations = new long[reader.maxDoc()];
+			for (LeafReaderContext leaf : reader.leaves()) {
+				NumericDocValues values = leaf.reader().getNumericDocValues("Population");
+				if (values == null) {
+					continue;
+				}
+				for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+					populations[leaf.docBase + doc] = values.longValue();
+				}
+			}
+			return populations;
+		}
+	}
+
+	/**
+	 * @param payload - payload of a suggestion
+	 * @return geonameid and stored name of the suggested place
+	 */
+	public static String[] getPlace(BytesRef payload) {
+		String place = new String(payload.bytes, payload.offset, payload.length, StandardCharsets.UTF_8);
+		int separator = place.indexOf(PAYLOAD_SEPARATOR);
+		return new String[] {place.substring(0, separator), place.substring(separator + 1)};
+	}
+
+}
@@ -0,0 +1,54 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Merge join side of the alternate names: streams a "geonameid TAB name" file sorted by
+ * geonameid alongside the records of allCountries.txt, which must be requested in the same order.
+ * @author amagge
+ */
+public class SortedAltNamesReader implements Closeable {
+
+	private final TsvReader reader;
+	private boolean hasLine;
+	private int currentId;
+
+	public SortedAltNamesReader(String filename) throws IOException {
+		reader = new TsvReader(filename);
+		advance();
+	}
+
+	/**
+	 * Skips the names of smaller geonameids and returns the names of the given one
+	 * @param id - geonameid, not smaller than the previously requested one
+	 * @return new, modifiable set of names, empty if there are none
+	 * @throws IOException
+	 */
+	public Set<String> namesFor(int id) throws IOException {
+		while (hasLine && currentId < id) {
+			advance();
+		}
+		Set<String> names = new HashSet<String>();
+		while (hasLine && currentId == id) {
+			names.add(reader.line().field(1));
+			advance();
+		}
+		return names;
+	}
+
+	private void advance() throws IOException {
+		hasLine = reader.next();
+		if (hasLine) {
+			currentId = reader.line().parseInt(0);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,250 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+/**
+ * Tab separated line that hands out field offsets instead of splitting the line into Strings.
+ * Fields can be compared and parsed in place so records can be filtered before any
+ * String is created. Instances are reused from line to line and are not thread-safe.
+ * @author amagge
+ */
+public class TsvLine {
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private char[] buf;
+	private char[] own = new char[256];
+	private int start = 0;
+	private int end = 0;
+	private int[] fieldStarts = new int[32];
+	private int[] fieldEnds = new int[32];
+	private int fieldCount = 0;
+
+	/**
+	 * Points this line at a region of a buffer, the buffer is not copied
+	 * @param buf - buffer holding the line
+	 * @param start - offset of the first character of the line
+	 * @param end - offset after the last character of the line, without the line break
+	 */
+	void set(char[] buf, int start, int end) {
+		this.buf = buf;
+		this.start = start;
+		this.end = end;
+		fieldCount = 0;
+		int fieldStart = start;
+		for (int i = start; i < end; i++) {
+			if (buf[i] == '\t') {
+				addField(fieldStart, i);
+				fieldStart = i + 1;
+			}
+		}
+		addField(fieldStart, end);
+	}
+
+	/**
+	 * Copies a line into this instance's own buffer and splits it into fields
+	 * @param line - line without the line break
+	 */
+	public void set(String line) {
+		if (own.length < line.length()) {
+			own = new char[Math.max(line.length(), own.length * 2)];
+		}
+		line.getChars(0, line.length(), own, 0);
+		set(own, 0, line.length());
+	}
+
+	private void addField(int fieldStart, int fieldEnd) {
+		if (fieldCount == fieldStarts.length) {
+			int[] starts = new int[fieldCount * 2];
+			int[] ends = new int[fieldCount * 2];
+			System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+			System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+			fieldStarts = starts;
+			fieldEnds = ends;
+		}
+		fieldStarts[fieldCount] = fieldStart;
+		fieldEnds[fieldCount] = fieldEnd;
+		fieldCount++;
+	}
+
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	public int length() {
+		return end - start;
+	}
+
+	public boolean startsWith(char c) {
+		return end > start && buf[start] == c;
+	}
+
+	/**
+	 * The offset arrays are reused from line to line, a field past the end of a short line would
+	 * otherwise read the offsets of an earlier, longer line
+	 * @param field - index of the field
+	 * @return offset of the first character of the field
+	 */
+	private int fieldStart(int field) {
+		if (field < 0 || field >= fieldCount) {
+			throw new IndexOutOfBoundsException("Field " + field + " of a line with " + fieldCount + " fields");
+		}
+		return fieldStarts[field];
+	}
+
+	public int fieldLength(int field) {
+		return fieldEnds[field] - fieldStart(field);
+	}
+
+	public boolean isFieldBlank(int field) {
+		for (int i = fieldStart(field); i < fieldEnds[field]; i++) {
+			if (!Character.isWhitespace(buf[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param field - index of the field
+	 * @return the field as a new String
+	 */
+	public String field(int field) {
+		return new String(buf, fieldStart(field), fieldLength(field));
+	}
+
+	public boolean fieldEquals(int field, String value) {
+		int length = fieldLength(field);
+		if (length != value.length()) {
+			return false;
+		}
+		int offset = fieldStart(field);
+		for (int i = 0; i < length; i++) {
+			if (buf[offset + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean fieldEqualsIgnoreCase(int field, String value) {
+		int length = fieldLength(field);
+		if (length != value.length()) {
+			return false;
+		}
+		int offset = fieldStart(field);
+		for (int i = 0; i < length; i++) {
+			char c = buf[offset + i];
+			char v = value.charAt(i);
+			if (c != v && Character.toLowerCase(c) != Character.toLowerCase(v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Linear scan meant for the small sets of feature classes, codes and ids used by the filters
+	 * @param field - index of the field
+	 * @param values - values to compare the field with
+	 * @return true if the field equals any of the values
+	 */
+	public boolean fieldIn(int field, Collection<String> values) {
+		for (String value : values) {
+			if (fieldEquals(field, value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int parseInt(int field) {
+		long value = parseLong(field);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Out of range for int: " + field(field));
+		}
+		return (int) value;
+	}
+
+	public long parseLong(int field) {
+		int i = fieldStart(field);
+		int fieldEnd = fieldEnds[field];
+		boolean negative = false;
+		if (i < fieldEnd && (buf[i] == '-' || buf[i] == '+')) {
+			negative = buf[i] == '-';
+			i++;
+		}
+		if (i == fieldEnd || fieldEnd - i > 18) {
+			// empty or possibly out of range for the fast path
+			return Long.parseLong(field(field));
+		}
+		long value = 0;
+		for (; i < fieldEnd; i++) {
+			char c = buf[i];
+			if (c < '0' || c > '9') {
+				throw new NumberFormatException("For input string: \"" + field(field) + "\"");
+			}
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses plain decimals such as coordinates in place. The digits are collected into an exact
+	 * long and divided by an exact power of ten, which rounds the same as Double.parseDouble.
+	 * Anything else (exponents, more than 15 digits) falls back to Double.parseDouble.
+	 * @param field - index of the field
+	 * @return the parsed value
+	 */
+	public double parseDouble(int field) {
+		int i = fieldStart(field);
+		int fieldEnd = fieldEnds[field];
+		boolean negative = false;
+		if (i < fieldEnd && (buf[i] == '-' || buf[i] == '+')) {
+			negative = buf[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = -1;
+		for (; i < fieldEnd; i++) {
+			char c = buf[i];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			} else if (c == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			} else {
+				return Double.parseDouble(field(field));
+			}
+		}
+		if (digits == 0 || digits > 15) {
+			return Double.parseDouble(field(field));
+		}
+		double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Writes the line without creating a String
+	 * @param writer - destination of the line, without a line break
+	 * @throws IOException
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		writer.write(buf, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(buf, start, end - start);
+	}
+
+}
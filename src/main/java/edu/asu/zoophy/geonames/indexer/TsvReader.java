@@ -0,0 +1,98 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams a large tab separated file (e.g. the GeoNames dumps) line by line through one
+ * reusable {@link TsvLine}, without creating a String per line or per field.
+ * @author amagge
+ */
+public class TsvReader implements Closeable {
+
+	private final Reader reader;
+	private final TsvLine line = new TsvLine();
+	private char[] buf = new char[1 << 16];
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof = false;
+
+	public TsvReader(String filename) throws FileNotFoundException {
+		this(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8));
+	}
+
+	public TsvReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Advances to the next line, the previous line's contents are no longer valid afterwards
+	 * @return false if the end of the file was reached
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			for (int i = pos; i < limit; i++) {
+				if (buf[i] == '\n') {
+					setLine(pos, i);
+					pos = i + 1;
+					return true;
+				}
+			}
+			if (eof) {
+				if (pos < limit) {
+					setLine(pos, limit);
+					pos = limit;
+					return true;
+				}
+				return false;
+			}
+			fill();
+		}
+	}
+
+	/**
+	 * @return the current line
+	 */
+	public TsvLine line() {
+		return line;
+	}
+
+	private void setLine(int lineStart, int lineEnd) {
+		if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+			lineEnd--;
+		}
+		line.set(buf, lineStart, lineEnd);
+	}
+
+	private void fill() throws IOException {
+		// keep the partial line, growing the buffer if a single line fills it
+		int remaining = limit - pos;
+		if (remaining == buf.length) {
+			char[] larger = new char[buf.length * 2];
+			System.arraycopy(buf, pos, larger, 0, remaining);
+			buf = larger;
+		} else if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, remaining);
+		}
+		pos = 0;
+		limit = remaining;
+		int read = reader.read(buf, limit, buf.length - limit);
+		if (read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,363 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import edu.asu.zoophy.geonames.indexer.geotree.Adm;
+import edu.asu.zoophy.geonames.indexer.geotree.AltNamesChanges;
+import edu.asu.zoophy.geonames.indexer.geotree.Country;
+import edu.asu.zoophy.geonames.indexer.geotree.GeoNamesTree;
+
+/**
+ * Applies the GeoNames daily modification and deletion files to an existing index,
+ * so the index does not have to be recreated to pick up the latest changes.
+ * Records whose country, state or county changed are indexed again as well, since
+ * those names are part of their own documents. The changes are also applied to
+ * allCountries.txt and alternateNamesV2.txt to keep them in line with the index.
+ * @author amagge
+ */
+public class Updater {
+
+	private static Logger log = Logger.getLogger("Updater");
+
+	/**
+	 * @param date - date of the daily files, formatted as YYYY-MM-DD
+	 * @throws IOException if the changes could not be applied, the index and the dumps are then left unchanged
+	 */
+	public static void updateIndex(String date) throws IOException {
+		Indexer.loadProperties();
+		applyUpdates(date);
+	}
+
+	/**
+	 * Applies the daily files with the settings already loaded into the fields of the {@link Indexer}
+	 * @param date - date of the daily files, formatted as YYYY-MM-DD
+	 * @throws IOException if the changes could not be applied, the index and the dumps are then left unchanged
+	 */
+	static void applyUpdates(String date) throws IOException {
+		String dir = Indexer.geonameResourcesDir;
+		File modificationsFile = new File(dir, "modifications-" + date + ".txt");
+		File deletesFile = new File(dir, "deletes-" + date + ".txt");
+		File altModificationsFile = new File(dir, "alternateNamesModifications-" + date + ".txt");
+		File altDeletesFile = new File(dir, "alternateNamesDeletes-" + date + ".txt");
+		for (File file : new File[] {modificationsFile, deletesFile, altModificationsFile, altDeletesFile}) {
+			if (!file.exists()) {
+				log.warning("Missing update file " + file + ", index not updated");
+				return;
+			}
+		}
+		File tmpDir = new File(Indexer.tmpDir);
+		List<File> tmpFiles = new ArrayList<File>();
+		try {
+			// Records and alternate names by their ids
+			Map<Integer, String> modifications = readLines(modificationsFile.getPath());
+			Set<Integer> deletes = readIds(deletesFile.getPath());
+			Map<Integer, String> altModifications = readLines(altModificationsFile.getPath());
+			Set<Integer> altDeletes = readIds(altDeletesFile.getPath());
+			log.info("Changes for " + date + ": " + modifications.size() + " modified, " + deletes.size() + " deleted, "
+					+ altModifications.size() + " alternate names modified, " + altDeletes.size() + " alternate names deleted");
+
+			// geonameids whose documents change
+			Set<Integer> affectedIds = new HashSet<Integer>(modifications.keySet());
+			AltNamesChanges altNamesChanges = new AltNamesChanges();
+			TsvLine altName = new TsvLine();
+			for (String line : altModifications.values()) {
+				altName.set(line);
+				int alternateNameId = altName.parseInt(0);
+				int geonameId = altName.parseInt(1);
+				if (GeoNamesTree.isIndexedAltName(altName)) {
+					altNamesChanges.modify(alternateNameId, geonameId, altName.field(3));
+				} else {
+					// may have been an indexed name before it was modified
+					altNamesChanges.delete(alternateNameId);
+				}
+				affectedIds.add(geonameId);
+			}
+			for (int alternateNameId : altDeletes) {
+				altNamesChanges.delete(alternateNameId);
+			}
+			affectedIds.addAll(readIds(altDeletesFile.getPath(), 1));
+			affectedIds.removeAll(deletes);
+
+			// Countries and admin units whose children are indexed again
+			Set<String> countryCodes = new HashSet<String>();
+			Set<String> adm1Codes = new HashSet<String>();
+			Set<String> adm2Codes = new HashSet<String>();
+			readCodes(dir + "countryInfo.txt", 16, affectedIds, countryCodes);
+			readCodes(dir + "admin1CodesASCII.txt", 3, affectedIds, adm1Codes);
+			readCodes(dir + "admin2Codes.txt", 3, affectedIds, adm2Codes);
+			log.info("Records of " + countryCodes.size() + " countries, " + adm1Codes.size() + " states and "
+					+ adm2Codes.size() + " counties are indexed again");
+
+			File updatedAllCountries = File.createTempFile("allCountries-", ".txt", new File(dir));
+			tmpFiles.add(updatedAllCountries);
+			File updatedRecords = File.createTempFile("updates-", ".txt", tmpDir);
+			tmpFiles.add(updatedRecords);
+			Set<Integer> updatedIds = applyChanges(dir + "allCountries.txt", updatedAllCountries, modifications, deletes,
+					updatedRecords, affectedIds, countryCodes, adm1Codes, adm2Codes);
+			File updatedAltNames = File.createTempFile("alternateNamesV2-", ".txt", new File(dir));
+			tmpFiles.add(updatedAltNames);
+			applyChanges(dir + "alternateNamesV2.txt", updatedAltNames, altModifications, altDeletes,
+					null, null, null, null, null);
+
+			// a tree created earlier would not have the changes
+			Indexer.geoTree = GeoNamesTree.reload(dir, updatedIds, altNamesChanges);
+			updateLookups(modifications);
+			Indexer.luceneWriter = new LuceneWriter(Indexer.luceneIndexDir, Indexer.indexerRamBufferMB, true);
+			// Records that were deleted or are no longer indexed
+			Set<Integer> removedIds = new HashSet<Integer>(deletes);
+			TsvLine record = new TsvLine();
+			for (Map.Entry<Integer, String> modification : modifications.entrySet()) {
+				record.set(modification.getValue());
+				if (!Indexer.isIndexable(record)) {
+					removedIds.add(modification.getKey());
+				}
+			}
+			try {
+				Indexer.luceneWriter.deleteDocuments(removedIds);
+				Indexer.loadAllCountries(updatedRecords.getPath(), null);
+			} catch (IOException | RuntimeException e) {
+				Indexer.luceneWriter.abortWriter();
+				throw e;
+			}
+			Indexer.luceneWriter.buildSuggester(Indexer.suggestFile);
+			Indexer.luceneWriter.exitWriter();
+			log.info("Deleted " + removedIds.size() + " and updated " + updatedIds.size() + " records");
+
+			Files.move(updatedAllCountries.toPath(), new File(dir, "allCountries.txt").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(updatedAltNames.toPath(), new File(dir, "alternateNamesV2.txt").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			log.info("Applied the changes for " + date + " to allCountries.txt and alternateNamesV2.txt");
+		} catch (NumberFormatException e) {
+			throw new IOException("Error updating the index: " + e.getMessage(), e);
+		} finally {
+			for (File tmpFile : tmpFiles) {
+				if (tmpFile.exists() && !tmpFile.delete()) {
+					log.warning("Could not delete " + tmpFile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param filename - file with an id in its first field
+	 * @return lines by id, in the order of the file
+	 * @throws IOException
+	 */
+	private static Map<Integer, String> readLines(String filename) throws IOException {
+		Map<Integer, String> lines = new LinkedHashMap<Integer, String>();
+		try (TsvReader reader = new TsvReader(filename)) {
+			while (reader.next()) {
+				TsvLine line = reader.line();
+				if (!line.startsWith('#') && line.length() > 0) {
+					lines.put(line.parseInt(0), line.toString());
+				}
+			}
+		}
+		return lines;
+	}
+
+	private static Set<Integer> readIds(String filename) throws IOException {
+		return readIds(filename, 0);
+	}
+
+	/**
+	 * @param filename - deletes file
+	 * @param field - field of the id
+	 * @return ids in the field
+	 * @throws IOException
+	 */
+	private static Set<Integer> readIds(String filename, int field) throws IOException {
+		Set<Integer> ids = new HashSet<Integer>();
+		try (TsvReader reader = new TsvReader(filename)) {
+			while (reader.next()) {
+				TsvLine line = reader.line();
+				if (!line.startsWith('#') && line.fieldCount() > field) {
+					ids.add(line.parseInt(field));
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @param filename - countryInfo.txt or an admin codes file
+	 * @param idField - field of the geonameid, the code is in the first field
+	 * @param ids - geonameids to look for
+	 * @param codes - codes of the ids found
+	 */
+	private static void readCodes(String filename, int idField, Set<Integer> ids, Set<String> codes) {
+		try (TsvReader reader = new TsvReader(filename)) {
+			while (reader.next()) {
+				TsvLine line = reader.line();
+				if (!line.startsWith('#') && line.fieldCount() > idField) {
+					try {
+						if (ids.contains(line.parseInt(idField))) {
+							codes.add(line.field(0));
+						}
+					} catch (NumberFormatException e) {
+						// reported when the lookups are created
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Copies a dump with its modified lines replaced, deleted lines removed and new lines appended,
+	 * optionally writing the records to index again to a second file
+	 * @param input - allCountries.txt or alternateNamesV2.txt
+	 * @param output - updated copy of the input
+	 * @param modifications - lines by the id in their first field
+	 * @param deletes - ids of the lines to remove
+	 * @param updates - file for the records to index again, or null
+	 * @param affectedIds - records to index again
+	 * @param countryCodes - countries whose records are indexed again
+	 * @param adm1Codes - states whose records are indexed again
+	 * @param adm2Codes - counties whose records are indexed again
+	 * @return geonameids written to the updates file
+	 * @throws IOException
+	 */
+	private static Set<Integer> applyChanges(String input, File output, Map<Integer, String> modifications, Set<Integer> deletes,
+			File updates, Set<Integer> affectedIds, Set<String> countryCodes, Set<String> adm1Codes, Set<String> adm2Codes) throws IOException {
+		Set<Integer> updatedIds = new HashSet<Integer>();
+		Map<Integer, String> added = new LinkedHashMap<Integer, String>(modifications);
+		TsvLine modified = new TsvLine();
+		try (TsvReader reader = new TsvReader(input);
+				Writer out = newWriter(output);
+				Writer updatesOut = updates == null ? null : newWriter(updates)) {
+			while (reader.next()) {
+				TsvLine line = reader.line();
+				if (line.startsWith('#') || line.length() == 0) {
+					line.writeTo(out);
+					out.write('\n');
+					continue;
+				}
+				int id;
+				try {
+					id = line.parseInt(0);
+				} catch (NumberFormatException e) {
+					line.writeTo(out);
+					out.write('\n');
+					continue;
+				}
+				if (deletes.contains(id)) {
+					continue;
+				}
+				String modification = added.remove(id);
+				if (modification != null) {
+					modified.set(modification);
+					line = modified;
+				}
+				line.writeTo(out);
+				out.write('\n');
+				if (updatesOut != null && isAffected(line, id, affectedIds, countryCodes, adm1Codes, adm2Codes)) {
+					line.writeTo(updatesOut);
+					updatesOut.write('\n');
+					updatedIds.add(id);
+				}
+			}
+			// records that are new since the dump was downloaded
+			for (Map.Entry<Integer, String> modification : added.entrySet()) {
+				out.write(modification.getValue());
+				out.write('\n');
+				if (updatesOut != null) {
+					updatesOut.write(modification.getValue());
+					updatesOut.write('\n');
+					updatedIds.add(modification.getKey());
+				}
+			}
+		}
+		return updatedIds;
+	}
+
+	private static Writer newWriter(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	/**
+	 * @return true if the record or its country, state or county changed
+	 */
+	private static boolean isAffected(TsvLine record, int id, Set<Integer> affectedIds,
+			Set<String> countryCodes, Set<String> adm1Codes, Set<String> adm2Codes) {
+		if (affectedIds.contains(id)) {
+			return true;
+		}
+		if (record.fieldCount() < 12) {
+			return false;
+		}
+		if (record.fieldIn(8, countryCodes)) {
+			return true;
+		}
+		if (adm1Codes.isEmpty() && adm2Codes.isEmpty()) {
+			return false;
+		}
+		String state = record.field(8) + "." + record.field(10);
+		return adm1Codes.contains(state) || adm2Codes.contains(state + "." + record.field(11));
+	}
+
+	/**
+	 * Renames the countries and admin units modified since countryInfo.txt and the admin codes
+	 * files were downloaded, so their records and children are indexed with the new names
+	 * @param modifications - records by geonameid
+	 */
+	private static void updateLookups(Map<Integer, String> modifications) {
+		List<String> renamed = new ArrayList<String>();
+		GeoNamesTree geoTree = Indexer.geoTree;
+		TsvLine record = new TsvLine();
+		for (Map.Entry<String, Country> entry : geoTree.getCountryLookup().entrySet()) {
+			Country country = entry.getValue();
+			String modification = modifications.get(country.getId());
+			if (modification != null) {
+				record.set(modification);
+				String name = record.field(1);
+				Set<String> altNames = country.getAlternatenames();
+				if (!altNames.isEmpty()) {
+					altNames.add(name);
+				}
+				entry.setValue(new Country(country.getIso(), country.getIso3(), name, country.getArea(),
+						country.getPopulation(), country.getId(), country.getContinentName(),
+						country.getContinentId(), altNames));
+				renamed.add(entry.getKey() + ":" + name);
+			}
+		}
+		List<Map<String, Adm>> admLookups = new ArrayList<Map<String, Adm>>();
+		admLookups.add(geoTree.getAdm1Lookup());
+		admLookups.add(geoTree.getAdm2Lookup());
+		for (Map<String, Adm> lookup : admLookups) {
+			for (Map.Entry<String, Adm> entry : lookup.entrySet()) {
+				Adm adm = entry.getValue();
+				String modification = modifications.get(adm.getId());
+				if (modification != null) {
+					record.set(modification);
+					String name = record.field(1);
+					String asciiname = record.field(2);
+					Set<String> altNames = adm.getAlternatenames();
+					if (!altNames.isEmpty()) {
+						altNames.add(name);
+						altNames.add(asciiname);
+					}
+					entry.setValue(new Adm(adm.getCode(), name, asciiname, adm.getId(), altNames));
+					renamed.add(entry.getKey() + ":" + name);
+				}
+			}
+		}
+		log.info("Renamed " + renamed.size() + " countries and admin units: " + renamed);
+	}
+
+}
@@ -0,0 +1,59 @@
+package edu.asu.zoophy.geonames.indexer.geotree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Alternate names added, modified or deleted since alternateNamesV2.txt was downloaded,
+ * taken from the GeoNames daily alternateNamesModifications and alternateNamesDeletes files
+ * @author amagge
+ */
+public class AltNamesChanges {
+
+	private final Set<Integer> removedAltNameIds = new HashSet<Integer>();
+	private final List<Integer> addedGeonameIds = new ArrayList<Integer>();
+	private final List<String> addedNames = new ArrayList<String>();
+
+	/**
+	 * @param alternateNameId - id of a deleted alternate name
+	 */
+	public void delete(int alternateNameId) {
+		removedAltNameIds.add(alternateNameId);
+	}
+
+	/**
+	 * @param alternateNameId - id of an added or modified alternate name
+	 * @param geonameId - geonameid the name belongs to
+	 * @param name - new value of the name
+	 */
+	public void modify(int alternateNameId, int geonameId, String name) {
+		removedAltNameIds.add(alternateNameId);
+		addedGeonameIds.add(geonameId);
+		addedNames.add(name);
+	}
+
+	/**
+	 * @param alternateNameId - id of an alternate name in alternateNamesV2.txt
+	 * @return true if the name in alternateNamesV2.txt is outdated
+	 */
+	boolean isRemoved(int alternateNameId) {
+		return removedAltNameIds.contains(alternateNameId);
+	}
+
+	/**
+	 * @param store - lookup being loaded
+	 * @param residentIds - sorted geonameids to keep the names of, or null to keep all
+	 */
+	void addTo(AltNamesStore store, int[] residentIds) {
+		for (int i = 0; i < addedGeonameIds.size(); i++) {
+			int geonameId = addedGeonameIds.get(i);
+			if (residentIds == null || Arrays.binarySearch(residentIds, geonameId) >= 0) {
+				store.add(geonameId, addedNames.get(i));
+			}
+		}
+	}
+
+}
@@ -1,15 +1,17 @@
 package edu.asu.zoophy.geonames.indexer.geotree;
 
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import edu.asu.zoophy.geonames.indexer.TsvLine;
+import edu.asu.zoophy.geonames.indexer.TsvReader;
+
 /**
  * File to build the GeonameTree
  * @author amagge
@@ -17,7 +19,7 @@ import java.util.logging.Logger;
 public class GeoNamesTree {
 	private final Logger log = Logger.getLogger("GeoNameTree");
 
-	private static Map<Integer, Set<String>> altNamesLookup = null;
+	private static AltNamesStore altNamesLookup = null;
 	private static Map<String, Country> countryLookup = null;
 	private static Map<String, Adm> adm1Lookup = null;
 	private static Map<String, Adm> adm2Lookup = null;
@@ -41,91 +43,152 @@ public class GeoNamesTree {
     	continentLookup.put("AN", "6255152,Antarctica");
     }
 	
-	private GeoNamesTree(String geoDirectory) {
+	/**
+	 * @param geoDirectory - directory of the GeoNames files
+	 * @param residentIds - if not null, only the alternate names of countries, admin units and
+	 * 			these geonameids are kept in memory, e.g. when the names of the other records are
+	 * 			merge joined while indexing
+	 * @param altNamesChanges - changes to apply to alternateNamesV2.txt, may be null
+	 */
+	private GeoNamesTree(String geoDirectory, Set<Integer> residentIds, AltNamesChanges altNamesChanges) {
 		log.info("Loading geonames files...");
 		GeoAltNamesFile = geoDirectory + "alternateNamesV2.txt";
 		GeoCountryFile = geoDirectory + "countryInfo.txt";
 		GeoADM1File = geoDirectory + "admin1CodesASCII.txt";
 		GeoADM2File = geoDirectory + "admin2Codes.txt";
 		log.info("Creating lookups...");
-		altNamesLookup = createAltNamesLookup();
+		int[] sortedResidentIds = null;
+		if (residentIds != null) {
+			sortedResidentIds = getLookupIds(residentIds);
+		}
+		altNamesLookup = createAltNamesLookup(sortedResidentIds, altNamesChanges);
 		countryLookup = createCountryLookup();
 		adm1Lookup = adminLookup(GeoADM1File);
 		adm2Lookup = adminLookup(GeoADM2File);
 		log.info("Finished processing Admin and Country lookups");
 	}
 
-	private HashMap<Integer, Set<String>> createAltNamesLookup() {
-		HashMap<Integer, Set<String>> altNamesLookup = new HashMap<Integer, Set<String>>();
-		String line;
-		Scanner scan;
-		try {
-			File geoFile = new File(GeoAltNamesFile);
-			scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				line = scan.nextLine();
-				String[] geoname = line.split("\t");
-				if (!line.startsWith("#")) {
+	/**
+	 * @param extraIds - further geonameids to include
+	 * @return sorted geonameids of the countries and admin units in the lookup files and the extra ids
+	 */
+	private int[] getLookupIds(Set<Integer> extraIds) {
+		Set<Integer> ids = new HashSet<Integer>(extraIds);
+		collectIds(GeoCountryFile, 16, ids);
+		collectIds(GeoADM1File, 3, ids);
+		collectIds(GeoADM2File, 3, ids);
+		int[] sortedIds = new int[ids.size()];
+		int i = 0;
+		for (int id : ids) {
+			sortedIds[i++] = id;
+		}
+		Arrays.sort(sortedIds);
+		return sortedIds;
+	}
+
+	private void collectIds(String filename, int field, Set<Integer> ids) {
+		try (TsvReader reader = new TsvReader(filename)) {
+			while (reader.next()) {
+				TsvLine geoname = reader.line();
+				if (!geoname.startsWith('#') && geoname.fieldCount() > field) {
+					try {
+						ids.add(geoname.parseInt(field));
+					} catch (NumberFormatException e) {
+						// reported when the lookup itself is created
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * English names and abbreviations are the only alternate names that are indexed.
+	 * The preferred, short, colloquial and historic flags used to be compared by reference
+	 * and never matched, so they are left out to keep the indexed names the same.
+	 * @param altName - line of alternateNamesV2.txt or of its daily modifications
+	 * @return true if the name should be indexed
+	 */
+	public static boolean isIndexedAltName(TsvLine altName) {
+		return altName.fieldCount() >= 4 && !altName.startsWith('#') &&
+				(altName.fieldEqualsIgnoreCase(2, "abbr") || altName.fieldEqualsIgnoreCase(2, "en"));
+	}
+
+	/**
+	 * @param residentIds - sorted geonameids to keep the names of, or null to keep all
+	 * @param altNamesChanges - changes to apply to alternateNamesV2.txt, may be null
+	 * @return alternate names by geonameid
+	 */
+	private AltNamesStore createAltNamesLookup(int[] residentIds, AltNamesChanges altNamesChanges) {
+		AltNamesStore altNamesLookup = new AltNamesStore();
+		try (TsvReader reader = new TsvReader(GeoAltNamesFile)) {
+			while (reader.next()) {
+				TsvLine geoname = reader.line();
+				if (!geoname.startsWith('#')) {
+					if (!isIndexedAltName(geoname)) {
+						continue;
+					}
 					int geonameid = -1;
 					try {
-						geonameid = Integer.parseInt(geoname[1]);
+						geonameid = geoname.parseInt(1);
 					} catch (Exception e) {
-						log.warning("Error parsing ("+GeoAltNamesFile+") Field: GeonamesID:" + geoname[1]);
+						log.warning("Error parsing ("+GeoAltNamesFile+") Field: GeonamesID:" + geoname.field(1));
+						continue;
+					}
+					if (residentIds != null && Arrays.binarySearch(residentIds, geonameid) < 0) {
 						continue;
 					}
-					String isolanguage = geoname[2];
-					String altName = geoname[3];
-					boolean isPreferredName = geoname.length>5 && geoname[4]=="1" ? true : false;
-					boolean isShortName = geoname.length>6 && geoname[5]=="1" ? true : false;
-					boolean isColloquial = geoname.length>7 && geoname[6]=="1" ? true : false;
-					boolean isHistoric = geoname.length>8 && geoname[7]=="1" ? true : false;
-					if(isolanguage.equalsIgnoreCase("abbr") || isolanguage.equalsIgnoreCase("en") ||
-						isPreferredName || isShortName || isColloquial || isHistoric) {
-						Set<String> altNames = altNamesLookup.containsKey(geonameid) ? altNamesLookup.get(geonameid) : new HashSet<String>() ;
-						altNames.add(altName);
-						altNamesLookup.put(geonameid, altNames);
+					if (altNamesChanges != null) {
+						try {
+							if (altNamesChanges.isRemoved(geoname.parseInt(0))) {
+								continue;
+							}
+						} catch (Exception e) {
+							log.warning("Error parsing ("+GeoAltNamesFile+") Field: AlternateNameID:" + geoname.field(0));
+							continue;
+						}
 					}
+					altNamesLookup.add(geonameid, geoname.field(3));
 				} else {
-					System.out.println(geoname.length + " : " + line);
+					System.out.println(geoname.fieldCount() + " : " + geoname);
 				}
 			}
-			scan.close();
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		log.info("Alternate Names loaded: " + altNamesLookup.size());
+		if (altNamesChanges != null) {
+			altNamesChanges.addTo(altNamesLookup, residentIds);
+		}
+		altNamesLookup.freeze();
+		log.info("Alternate Names loaded: " + altNamesLookup.size() + " (" + altNamesLookup.nameCount() + " distinct names)");
 		return altNamesLookup;
 	}
 	
 	private Map<String, Country> createCountryLookup() {
 		Map<String, Country> countryLookup = new HashMap<String, Country>();
-		String line;
-		Scanner scan;
-		try {
-			File geoFile = new File(GeoCountryFile);
-			scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				line = scan.nextLine();
-				if (!line.startsWith("#")) {
-					String[] geoname = line.trim().split("\t");
-					String iso = geoname[0];
-					String iso3 = geoname[1];
-					String name = geoname[4];
+		try (TsvReader reader = new TsvReader(GeoCountryFile)) {
+			while (reader.next()) {
+				TsvLine geoname = reader.line();
+				if (!geoname.startsWith('#') && geoname.fieldCount() > 16) {
+					String iso = geoname.field(0);
+					String iso3 = geoname.field(1);
+					String name = geoname.field(4);
 					double area = 0;
 					int population = 0;
 					try {
-						area = Double.parseDouble(geoname[6]);
+						area = geoname.parseDouble(6);
 					} catch (Exception e) {
-						log.warning("Error parsing ("+GeoCountryFile+") Area:" + geoname[6]);
+						log.warning("Error parsing ("+GeoCountryFile+") Area:" + geoname.field(6));
 					}
 					try{
-						population = Integer.parseInt(geoname[7]);
+						population = geoname.parseInt(7);
 					} catch (Exception e) {
-						log.warning("Error parsing ("+GeoCountryFile+") Population:" + geoname[7]);
+						log.warning("Error parsing ("+GeoCountryFile+") Population:" + geoname.field(7));
 					}
 					String continentName = "";
 					int continentId = -1;
-					String continentCode = geoname[8];
+					String continentCode = geoname.field(8);
 					if(continentLookup.containsKey(continentCode)){
 						String[] continentParts = continentLookup.get(continentCode).split(",");
 						try{
@@ -138,9 +201,9 @@ public class GeoNamesTree {
 					}
 					int id = -1;
 					try{
-						id = Integer.parseInt(geoname[16]);
+						id = geoname.parseInt(16);
 					} catch (Exception e) {
-						log.warning("Error parsing ("+GeoCountryFile+") ContinentID:" + geoname[16]);
+						log.warning("Error parsing ("+GeoCountryFile+") ContinentID:" + geoname.field(16));
 						continue;
 					}
 					Set<String> altNames = new HashSet<String>();
@@ -153,8 +216,7 @@ public class GeoNamesTree {
 					countryLookup.put(iso,country);
 				}
 			}
-			scan.close();
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		log.info("Countries loaded: " + countryLookup.size());
@@ -163,24 +225,20 @@ public class GeoNamesTree {
 	
 	private Map<String, Adm> adminLookup(String filename) {
 		Map<String, Adm> lookup = new HashMap<String, Adm>();
-		File geoFile = new File(filename);
-		String line;
-		try{
-			Scanner scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				line = scan.nextLine();
-				String[] geoname = line.trim().split("\t");
-				if (!line.startsWith("#") && geoname.length >= 4) {
-					String code = geoname[0];
-					String name = geoname[1];
-					String asciiname = geoname[2];
+		try (TsvReader reader = new TsvReader(filename)) {
+			while (reader.next()) {
+				TsvLine geoname = reader.line();
+				if (!geoname.startsWith('#') && geoname.fieldCount() >= 4) {
 					int id = -1;
 					try {
-						id = Integer.parseInt(geoname[3]);
+						id = geoname.parseInt(3);
 					} catch (Exception e) {
-						log.warning("Error parsing ("+filename+") field-ID in:" + geoname[3]);
+						log.warning("Error parsing ("+filename+") field-ID in:" + geoname.field(3));
 						continue;
 					}
+					String code = geoname.field(0);
+					String name = geoname.field(1);
+					String asciiname = geoname.field(2);
 
 					Set<String> altNames = new HashSet<String>();
 					if (getAltNamesLookup().containsKey(id)) {
@@ -192,7 +250,6 @@ public class GeoNamesTree {
 					lookup.put(code,adm);
 				}
 			}
-			scan.close();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -201,13 +258,44 @@ public class GeoNamesTree {
 	}
 	
 	public static GeoNamesTree getInstance(String dir) {
+		return getInstance(dir, false);
+	}
+
+	/**
+	 * @param dir - directory of the GeoNames files
+	 * @param residentLookupsOnly - only keep the alternate names of countries and admin units
+	 * @return the tree, created on the first call
+	 */
+	public static GeoNamesTree getInstance(String dir, boolean residentLookupsOnly) {
+		return getInstance(dir, residentLookupsOnly ? new HashSet<Integer>() : null, null);
+	}
+
+	/**
+	 * @param dir - directory of the GeoNames files
+	 * @param residentIds - if not null, only keep the alternate names of countries, admin units and these ids
+	 * @param altNamesChanges - changes to apply to alternateNamesV2.txt, may be null
+	 * @return the tree, created on the first call
+	 */
+	public static GeoNamesTree getInstance(String dir, Set<Integer> residentIds, AltNamesChanges altNamesChanges) {
 		if (tree == null) {
-			tree = new GeoNamesTree(dir);
+			tree = new GeoNamesTree(dir, residentIds, altNamesChanges);
 		}
 		return tree;
 	}
 
-	public Map<Integer, Set<String>> getAltNamesLookup() {
+	/**
+	 * Creates the tree again, e.g. once the changes of the daily files are known
+	 * @param dir - directory of the GeoNames files
+	 * @param residentIds - if not null, only keep the alternate names of countries, admin units and these ids
+	 * @param altNamesChanges - changes to apply to alternateNamesV2.txt, may be null
+	 * @return the new tree, also returned by later calls of getInstance
+	 */
+	public static GeoNamesTree reload(String dir, Set<Integer> residentIds, AltNamesChanges altNamesChanges) {
+		tree = new GeoNamesTree(dir, residentIds, altNamesChanges);
+		return tree;
+	}
+
+	public AltNamesStore getAltNamesLookup() {
 		return altNamesLookup;
 	}
 
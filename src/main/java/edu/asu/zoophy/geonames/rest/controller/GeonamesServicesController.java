@@ -1,19 +1,43 @@
 package edu.asu.zoophy.geonames.rest.controller;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
 import edu.asu.zoophy.geonames.rest.exception.InvalidLuceneQueryException;
 import edu.asu.zoophy.geonames.rest.exception.LuceneSearcherException;
+import edu.asu.zoophy.geonames.rest.search.LocationQuery;
 import edu.asu.zoophy.geonames.rest.search.LuceneSearcher;
 import edu.asu.zoophy.geonames.rest.search.Result;
+import edu.asu.zoophy.geonames.rest.search.SearchWarmer;
 
 /**
  * Responsible for mapping Lucene service requests
@@ -24,12 +48,30 @@ public class GeonamesServicesController {
 	
 	@Autowired
 	private LuceneSearcher indexSearcher;
+
+	@Autowired
+	private SearchWarmer searchWarmer;
 	
 	@Value("${lucene.query.default.records}")
 	private Integer QUERY_DEFAULT_RECORDS;
 
 	@Value("${lucene.query.max.records}")
 	private Integer QUERY_MAX_RECORDS;
+
+	@Value("${lucene.reverse.default.radius:50}")
+	private Double REVERSE_DEFAULT_RADIUS;
+
+	@Value("${lucene.suggest.default.records:10}")
+	private Integer SUGGEST_DEFAULT_RECORDS;
+
+	@Value("${lucene.batch.max.locations:10000}")
+	private Integer BATCH_MAX_LOCATIONS;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private PrometheusMeterRegistry meterRegistry;
 	
 	private final static Logger logger = Logger.getLogger("GeonamesServicesController");
 	
@@ -43,10 +85,26 @@ public class GeonamesServicesController {
 		return "Lucene services are up and running.";
 	}
 
+	/**
+	 * Readiness check for load balancers, only ready once the index is warmed up
+	 * @param response - response whose status is 503 until the warm-up has finished
+	 * @return message whether the service is ready
+	 */
+	@RequestMapping(value="/ready", method=RequestMethod.GET)
+	public String checkReady(HttpServletResponse response) {
+		if (!searchWarmer.isReady()) {
+			response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+			return "Lucene services are warming up.";
+		}
+		return "Lucene services are ready.";
+	}
+
     /**
      * Retrieve results for Lucene query
      * @param query - Valid Lucene querystring
      * @param count - Number of records requested (Optional)
+     * @param fields - comma separated fields to be returned, all by default (Optional)
+     * @param cursor - next cursor of the previous page to continue from (Optional)
      * @return Result results of given query.
      * @throws LuceneSearcherException 
      * @throws InvalidLuceneQueryException 
@@ -55,7 +113,9 @@ public class GeonamesServicesController {
     @RequestMapping(value="/search", method=RequestMethod.GET)
     @ResponseStatus(value=HttpStatus.OK)
     public Result queryLucene(@RequestParam(value="query") String query,
-    		@RequestParam(value="count", required = false) String countStr) 
+    		@RequestParam(value="count", required = false) String countStr,
+    		@RequestParam(value="fields", required = false) String fields,
+    		@RequestParam(value="cursor", required = false) String cursor) 
     				throws LuceneSearcherException, InvalidLuceneQueryException {
 		if (!query.trim().isEmpty()) {
 			int count = QUERY_DEFAULT_RECORDS;
@@ -68,15 +128,13 @@ public class GeonamesServicesController {
 					if(!countStr.equalsIgnoreCase("all")){
 						logger.warning("Didn't recognize count '" + countStr + "'. Assigning default "+ QUERY_DEFAULT_RECORDS);
 					} else {
-						logger.info("Requested all available records");
+						logger.fine("Requested all available records");
 						showAvailable = true;
 					}
 				}
-			} else {
-				logger.warning("Requesting default count "+ QUERY_DEFAULT_RECORDS);
 			}
-    		Result results = indexSearcher.searchIndex(query, count, showAvailable);
-    		logger.info("Search for '" + query +"' found " + results.getAvailable() +
+    		Result results = indexSearcher.searchIndex(query, count, showAvailable, getListParam(fields), cursor);
+    		logger.fine(() -> "Search for '" + query +"' found " + results.getAvailable() +
     				" and retrieved " + results.getRetrieved() + " records");
     		return results;
     	} else {
@@ -84,10 +142,76 @@ public class GeonamesServicesController {
     	}
     }
 
+    /**
+     * Stream all results for Lucene query as newline-delimited JSON, requested with stream=true
+     * @param query - Valid Lucene querystring
+     * @param countStr - Number of records requested, all by default and not capped (Optional)
+     * @param fields - comma separated fields to be returned, all by default (Optional)
+     * @param response - response the records are written to
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/search", method=RequestMethod.GET, params="stream=true")
+    public void streamLucene(@RequestParam(value="query") String query,
+    		@RequestParam(value="count", required = false) String countStr,
+    		@RequestParam(value="fields", required = false) String fields,
+    		HttpServletResponse response) throws LuceneSearcherException, InvalidLuceneQueryException {
+		streamSearch(query, countStr, fields, response);
+    }
+
+    /**
+     * Stream all results for Lucene query as newline-delimited JSON, requested with Accept: application/x-ndjson
+     * @param query - Valid Lucene querystring
+     * @param countStr - Number of records requested, all by default and not capped (Optional)
+     * @param fields - comma separated fields to be returned, all by default (Optional)
+     * @param response - response the records are written to
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/search", method=RequestMethod.GET, produces="application/x-ndjson")
+    public void streamLuceneNdjson(@RequestParam(value="query") String query,
+    		@RequestParam(value="count", required = false) String countStr,
+    		@RequestParam(value="fields", required = false) String fields,
+    		HttpServletResponse response) throws LuceneSearcherException, InvalidLuceneQueryException {
+		streamSearch(query, countStr, fields, response);
+    }
+
+    private void streamSearch(String query, String countStr, String fields, HttpServletResponse response)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		if (query.trim().isEmpty()) {
+			throw new InvalidLuceneQueryException(query);
+		}
+		long count = Long.MAX_VALUE;
+		if (countStr != null && !countStr.equalsIgnoreCase("all")) {
+			try {
+				count = Math.abs(Long.parseLong(countStr));
+			} catch (NumberFormatException e) {
+				logger.warning("Didn't recognize count '" + countStr + "'. Streaming all records");
+			}
+		}
+		response.setContentType("application/x-ndjson");
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		// records are flushed as the response buffer fills, not one by one
+		ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.setRootValueSeparator(null);
+			long streamed = indexSearcher.streamIndex(query, count, getListParam(fields), record -> {
+				writer.writeValue(generator, record);
+				generator.writeRaw('\n');
+			});
+			logger.fine(() -> "Streamed " + streamed + " records for '" + query + "'");
+		} catch (IOException e) {
+			throw new LuceneSearcherException("Could not stream results: " + e.getMessage());
+		}
+    }
+
     /**
      * Retrieve results for Lucene query
      * @param query - Valid Lucene querystring
      * @param count - Number of records requested (Optional)
+     * @param exact - Count all matching records, true by default (Optional)
+     * @param fields - comma separated fields to be returned, all by default (Optional)
+     * @param cursor - next cursor of the previous page (Optional)
      * @return Result results of given query.
      * @throws LuceneSearcherException 
      * @throws InvalidLuceneQueryException 
@@ -97,7 +221,10 @@ public class GeonamesServicesController {
     @ResponseStatus(value=HttpStatus.OK)
     public Result queryLocations(@RequestParam(value="location") String location,
 								 @RequestParam(value="count", required = false) String countStr,
-								 @RequestParam(value="mode", required = false) String mode)
+								 @RequestParam(value="mode", required = false) String mode,
+								 @RequestParam(value="exact", required = false, defaultValue = "true") boolean exact,
+								 @RequestParam(value="fields", required = false) String fields,
+								 @RequestParam(value="cursor", required = false) String cursor)
     		throws LuceneSearcherException, InvalidLuceneQueryException {
 		if (!location.trim().isEmpty()) {
 			int count = QUERY_DEFAULT_RECORDS;
@@ -108,11 +235,9 @@ public class GeonamesServicesController {
 				} catch (NumberFormatException e){
 					logger.warning("Didn't recognize count '" + countStr + "'. Assigning default "+ QUERY_DEFAULT_RECORDS);
 				}
-			} else {
-				logger.warning("Requesting default count "+ QUERY_DEFAULT_RECORDS);
 			}
-			Result results = indexSearcher.searchLocation(location, count, mode);
-			logger.info("Search for '" + location +"' found " + results.getAvailable() +
+			Result results = indexSearcher.searchLocation(location, count, mode, exact, getListParam(fields), cursor);
+			logger.fine(() -> "Search for '" + location +"' found " + results.getAvailable() +
 					" and retrieved " + results.getRetrieved() + " records");
 			return results;
 		} else {
@@ -120,4 +245,185 @@ public class GeonamesServicesController {
 		}
     }
 
+    /**
+     * Retrieve the places nearest to a coordinate
+     * @param latitude - latitude in degrees
+     * @param longitude - longitude in degrees
+     * @param radius - maximum distance in kilometers (Optional)
+     * @param countStr - Number of records requested (Optional)
+     * @param code - comma separated feature codes to be returned (Optional)
+     * @param typeClass - comma separated feature classes to be returned (Optional)
+     * @param fields - comma separated fields to be returned, all by default (Optional)
+     * @return Result nearest places, closest first
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/reverse", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Result queryReverse(@RequestParam(value="lat") double latitude,
+								@RequestParam(value="lon") double longitude,
+								@RequestParam(value="radius", required = false) Double radius,
+								@RequestParam(value="count", required = false) String countStr,
+								@RequestParam(value="code", required = false) String code,
+								@RequestParam(value="class", required = false) String typeClass,
+								@RequestParam(value="fields", required = false) String fields)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		// NaN fails every comparison, so the range is checked for inclusion
+		if (!(Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180)) {
+			throw new InvalidLuceneQueryException("Invalid coordinate: " + latitude + "," + longitude);
+		}
+		if (radius == null) {
+			radius = REVERSE_DEFAULT_RADIUS;
+		} else if (!(radius > 0) || radius.isInfinite()) {
+			throw new InvalidLuceneQueryException("Invalid radius: " + radius);
+		}
+		int count = QUERY_DEFAULT_RECORDS;
+		if(countStr != null){
+			try{
+				count = Integer.parseInt(countStr);
+				count = Math.min(QUERY_MAX_RECORDS, Math.abs(count));
+			} catch (NumberFormatException e){
+				logger.warning("Didn't recognize count '" + countStr + "'. Assigning default "+ QUERY_DEFAULT_RECORDS);
+			}
+			// a reverse search collects at least one place, the absolute value of MIN_VALUE is still negative
+			if (count <= 0) {
+				throw new InvalidLuceneQueryException("Invalid count: " + countStr);
+			}
+		}
+		return indexSearcher.searchReverse(latitude, longitude, radius, count, getListParam(code), getListParam(typeClass),
+				getListParam(fields));
+    }
+
+    /**
+     * Suggest places for the beginning of a name, e.g. while it is being typed
+     * @param prefix - beginning of a place name or alternate name
+     * @param countStr - Number of places requested (Optional)
+     * @return Result places with GeonameId, Name, Population and the suggested name as Match, most populated first
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/suggest", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Result querySuggest(@RequestParam(value="prefix") String prefix,
+								@RequestParam(value="count", required = false) String countStr)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		if (prefix.trim().isEmpty()) {
+			throw new InvalidLuceneQueryException(prefix);
+		}
+		int count = SUGGEST_DEFAULT_RECORDS;
+		if(countStr != null){
+			try{
+				count = Integer.parseInt(countStr);
+				count = Math.min(QUERY_MAX_RECORDS, Math.abs(count));
+			} catch (NumberFormatException e){
+				logger.warning("Didn't recognize count '" + countStr + "'. Assigning default "+ SUGGEST_DEFAULT_RECORDS);
+			}
+		}
+		return indexSearcher.suggest(prefix, count);
+    }
+
+    private static List<String> getListParam(String param) {
+		List<String> values = new ArrayList<String>();
+		if (param != null) {
+			for (String value : param.split(",")) {
+				if (!value.trim().isEmpty()) {
+					values.add(value.trim());
+				}
+			}
+		}
+		return values;
+    }
+
+    /**
+     * Retrieve results for a batch of locations given as a JSON array
+     * @param locationQueries - list of {location, count, mode, exact, fields} objects
+     * @return list of Results in the same order as the requested locations
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/location/batch", method=RequestMethod.POST, consumes=MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(value=HttpStatus.OK)
+    public List<Result> queryLocationBatch(@RequestBody List<LocationQuery> locationQueries)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		return searchLocationBatch(locationQueries);
+    }
+
+    /**
+     * Retrieve results for a batch of locations given as newline-delimited JSON objects
+     * @param request - request with one {location, count, mode, exact, fields} object per line
+     * @return list of Results in the same order as the requested locations
+     * @throws LuceneSearcherException 
+     * @throws InvalidLuceneQueryException 
+     */
+    @RequestMapping(value="/location/batch", method=RequestMethod.POST, consumes={"application/x-ndjson", MediaType.TEXT_PLAIN_VALUE})
+    @ResponseStatus(value=HttpStatus.OK)
+    public List<Result> queryLocationStream(HttpServletRequest request)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		List<LocationQuery> locationQueries = new ArrayList<LocationQuery>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					locationQueries.add(objectMapper.readValue(line, LocationQuery.class));
+				}
+			}
+		} catch (IOException e) {
+			throw new InvalidLuceneQueryException("Could not read batch: " + e.getMessage());
+		}
+		return searchLocationBatch(locationQueries);
+    }
+
+    private List<Result> searchLocationBatch(List<LocationQuery> locationQueries)
+    		throws LuceneSearcherException, InvalidLuceneQueryException {
+		if (locationQueries.size() > BATCH_MAX_LOCATIONS) {
+			throw new InvalidLuceneQueryException("Batch of " + locationQueries.size() +
+					" locations exceeds the maximum of " + BATCH_MAX_LOCATIONS);
+		}
+		for (LocationQuery locationQuery : locationQueries) {
+			Integer count = locationQuery.getCount();
+			locationQuery.setCount(count == null ? QUERY_DEFAULT_RECORDS : Math.min(QUERY_MAX_RECORDS, Math.abs(count)));
+		}
+		List<Result> results = indexSearcher.searchLocations(locationQueries);
+		logger.fine(() -> "Batch search for " + locationQueries.size() + " locations completed");
+		return results;
+    }
+
+    /**
+     * Statistics for sizing the search caches
+     * @return hit, miss and eviction counts per cache and /search parse times
+     */
+    @RequestMapping(value="/stats", method=RequestMethod.GET)
+    @ResponseStatus(value=HttpStatus.OK)
+    public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("resultCache", indexSearcher.getCacheStats());
+		stats.put("queryCache", indexSearcher.getQueryCacheStats());
+		stats.put("queryParser", indexSearcher.getParseStats());
+		stats.put("parentCache", indexSearcher.getParentCacheStats());
+		return stats;
+    }
+
+    /**
+     * Metrics of the service in the Prometheus text format: request, search tier and searcher acquire
+     * timers with histograms, hits per tier, result counts, cache and JVM metrics
+     * @return current values of all metrics
+     */
+    @RequestMapping(value="/prometheus", method=RequestMethod.GET, produces=TextFormat.CONTENT_TYPE_004)
+    @ResponseStatus(value=HttpStatus.OK)
+    public String getMetrics() {
+		return meterRegistry.scrape();
+    }
+
+    /**
+     * Swap in the latest version of the index at lucene.index.location without restarting
+     * @return message with the number of documents in the reloaded index
+     * @throws LuceneSearcherException 
+     */
+    @RequestMapping(value="/reload", method=RequestMethod.POST)
+    @ResponseStatus(value=HttpStatus.OK)
+    public String reloadIndex() throws LuceneSearcherException {
+		int numDocs = indexSearcher.reload();
+		return "Lucene index reloaded with " + numDocs + " documents.";
+    }
+
 }
@@ -0,0 +1,58 @@
+package edu.asu.zoophy.geonames.rest.metrics;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes one JSON object per request to the "access" logger, with the time taken to answer it
+ * @author amagge
+ */
+public class AccessLogInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START_ATTRIBUTE = AccessLogInterceptor.class.getName() + ".start";
+	private static final Logger accessLog = Logger.getLogger("access");
+
+	private final ObjectMapper objectMapper;
+
+	public AccessLogInterceptor(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		Long start = (Long) request.getAttribute(START_ATTRIBUTE);
+		if (start == null) {
+			return;
+		}
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("time", Instant.now().toString());
+		entry.put("remote", request.getRemoteAddr());
+		entry.put("method", request.getMethod());
+		entry.put("path", request.getRequestURI());
+		entry.put("query", request.getQueryString());
+		entry.put("status", response.getStatus());
+		entry.put("queryTimeMs", (System.nanoTime() - start) / 1000 / 1000.0);
+		try {
+			accessLog.info(objectMapper.writeValueAsString(entry));
+		} catch (JsonProcessingException e) {
+			accessLog.warning("Could not write access log entry: " + e.getMessage());
+		}
+	}
+
+}
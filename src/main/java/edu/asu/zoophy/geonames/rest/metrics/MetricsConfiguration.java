@@ -0,0 +1,55 @@
+package edu.asu.zoophy.geonames.rest.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.binder.system.UptimeMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Registry of the service metrics, scraped in the Prometheus format at GET /prometheus, the
+ * timing of every request by endpoint and the optional access log
+ * @author amagge
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+
+	@Value("${lucene.access.log:false}")
+	private Boolean accessLog;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Bean
+	public PrometheusMeterRegistry prometheusMeterRegistry() {
+		PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+		registry.config().commonTags("application", "zoophy-geonames");
+		new JvmMemoryMetrics().bindTo(registry);
+		new JvmGcMetrics().bindTo(registry);
+		new JvmThreadMetrics().bindTo(registry);
+		new ProcessorMetrics().bindTo(registry);
+		new UptimeMetrics().bindTo(registry);
+		return registry;
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		// failed requests are timed with the endpoint they failed on rather than again as /error
+		registry.addInterceptor(new RequestMetricsInterceptor(prometheusMeterRegistry())).excludePathPatterns("/error");
+		if (accessLog) {
+			registry.addInterceptor(new AccessLogInterceptor(objectMapper)).excludePathPatterns("/error");
+		}
+	}
+
+}
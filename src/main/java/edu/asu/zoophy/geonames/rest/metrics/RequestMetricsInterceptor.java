@@ -0,0 +1,53 @@
+package edu.asu.zoophy.geonames.rest.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times requests by the path pattern they were mapped to, e.g. /location, so that query strings
+ * do not create a timer per request
+ * @author amagge
+ */
+public class RequestMetricsInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START_ATTRIBUTE = RequestMetricsInterceptor.class.getName() + ".start";
+
+	private final MeterRegistry meterRegistry;
+
+	public RequestMetricsInterceptor(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		Long start = (Long) request.getAttribute(START_ATTRIBUTE);
+		if (start == null) {
+			return;
+		}
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		Timer.builder("geonames.http.requests")
+				.description("Time to answer a request")
+				.tag("uri", pattern == null ? "UNKNOWN" : pattern.toString())
+				.tag("method", request.getMethod())
+				.tag("status", String.valueOf(response.getStatus()))
+				.tag("exception", ex == null ? "None" : ex.getClass().getSimpleName())
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+}
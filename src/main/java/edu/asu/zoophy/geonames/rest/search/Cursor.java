@@ -0,0 +1,92 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.lucene.search.FieldDoc;
+
+import edu.asu.zoophy.geonames.rest.exception.InvalidLuceneQueryException;
+
+/**
+ * Opaque position in results sorted by population, so a search can continue where its previous page ended.
+ * Holds the population and document id of the last record returned, and for /location the query tier the
+ * records were found with. Document ids change when a new version of the index is loaded, so a cursor is
+ * only accepted by the version it was created on.
+ * @author amagge
+ */
+class Cursor {
+
+	private final int tier;
+	private final FieldDoc after;
+
+	private Cursor(int tier, FieldDoc after) {
+		this.tier = tier;
+		this.after = after;
+	}
+
+	/**
+	 * @return index of the query the previous page was found with
+	 */
+	int getTier() {
+		return tier;
+	}
+
+	/**
+	 * @return last record of the previous page, to search after
+	 */
+	FieldDoc getAfter() {
+		return after;
+	}
+
+	/**
+	 * @param indexVersion - version of the index the page was read from
+	 * @param tier - index of the query the page was found with
+	 * @param last - last record of the page
+	 * @return cursor for the next page
+	 */
+	static String encode(long indexVersion, int tier, FieldDoc last) {
+		String position = indexVersion + ":" + tier + ":" + last.fields[0] + ":" + last.doc;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param cursor - cursor returned with the previous page
+	 * @param indexVersion - version of the index to be searched
+	 * @param maxDoc - number of documents of the index to be searched, including deleted ones
+	 * @param tiers - number of queries of the search, 1 for a plain query
+	 * @return position of the previous page
+	 * @throws InvalidLuceneQueryException if the cursor is malformed, out of range or was created on another version of the index
+	 */
+	static Cursor decode(String cursor, long indexVersion, int maxDoc, int tiers) throws InvalidLuceneQueryException {
+		String[] position;
+		try {
+			position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+		} catch (IllegalArgumentException e) {
+			throw new InvalidLuceneQueryException("Invalid cursor: " + cursor);
+		}
+		if (position.length != 4) {
+			throw new InvalidLuceneQueryException("Invalid cursor: " + cursor);
+		}
+		long version;
+		int tier;
+		long population;
+		int doc;
+		try {
+			version = Long.parseLong(position[0]);
+			tier = Integer.parseInt(position[1]);
+			population = Long.parseLong(position[2]);
+			doc = Integer.parseInt(position[3]);
+		} catch (NumberFormatException e) {
+			throw new InvalidLuceneQueryException("Invalid cursor: " + cursor);
+		}
+		if (version != indexVersion) {
+			throw new InvalidLuceneQueryException("Cursor has expired as the index was reloaded, please search again");
+		}
+		// a document or tier out of range would fail the search itself
+		if (tier < 0 || tier >= tiers || doc < 0 || doc >= maxDoc) {
+			throw new InvalidLuceneQueryException("Invalid cursor: " + cursor);
+		}
+		return new Cursor(tier, new FieldDoc(doc, Float.NaN, new Object[] {population}));
+	}
+
+}
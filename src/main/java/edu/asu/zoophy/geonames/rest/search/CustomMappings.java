@@ -0,0 +1,195 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import edu.asu.zoophy.geonames.indexer.LuceneWriter;
+
+/**
+ * Locations mapped to a geonameid by the custom mappings file, one "location TAB geonameid" per line.
+ * Locations are matched regardless of case and spacing. Once resolved against a version of the index,
+ * a mapped location is answered with the document of its place without running a query.
+ * @author amagge
+ */
+class CustomMappings {
+
+	private static final Logger logger = Logger.getLogger("CustomMappings");
+
+	private final long modified;
+	private final Map<String, String> geonameIds;
+	private final long version;
+	private final Map<String, FieldDoc> places;
+
+	private CustomMappings(long modified, Map<String, String> geonameIds, long version, Map<String, FieldDoc> places) {
+		this.modified = modified;
+		this.geonameIds = geonameIds;
+		this.version = version;
+		this.places = places;
+	}
+
+	/**
+	 * @return modification time of the file the mappings were read from, -1 if there was no file
+	 */
+	long getModified() {
+		return modified;
+	}
+
+	/**
+	 * @return version of the index the mappings were resolved against, -1 if not resolved
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return number of mapped locations
+	 */
+	int size() {
+		return geonameIds.size();
+	}
+
+	/**
+	 * @param location - location in a string
+	 * @return geonameid the location is mapped to, null if it is not mapped
+	 */
+	String getGeonameId(String location) {
+		return geonameIds.isEmpty() ? null : geonameIds.get(normalize(location));
+	}
+
+	/**
+	 * Same hits as a search for the mapped geonameid
+	 * @param location - location in a string
+	 * @param numRecords - number of records to be returned
+	 * @return the mapped place, no hits if it is not in the index, null if the location is not mapped
+	 */
+	TopDocs lookup(String location, int numRecords) {
+		String geonameId = getGeonameId(location);
+		if (geonameId == null) {
+			return null;
+		}
+		FieldDoc place = places.get(geonameId);
+		if (place == null) {
+			return new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new FieldDoc[0]);
+		}
+		return new TopDocs(new TotalHits(1, TotalHits.Relation.EQUAL_TO), numRecords > 0 ? new FieldDoc[] {place} : new FieldDoc[0]);
+	}
+
+	/**
+	 * Reads the mappings file, a missing file has no mappings
+	 * @param file - custom mappings file
+	 * @return unresolved mappings
+	 * @throws IOException
+	 */
+	static CustomMappings read(Path file) throws IOException {
+		long modified;
+		try {
+			modified = Files.getLastModifiedTime(file).toMillis();
+		} catch (NoSuchFileException nsfe) {
+			logger.warning("No custom mappings at '" + file + "'");
+			return new CustomMappings(-1, Collections.<String, String>emptyMap(), -1, Collections.<String, FieldDoc>emptyMap());
+		}
+		Map<String, String> geonameIds = new HashMap<String, String>();
+		int skipped = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				int tab = line.indexOf('\t');
+				String location = tab < 0 ? "" : normalize(line.substring(0, tab));
+				String geonameId = tab < 0 ? "" : line.substring(tab + 1).trim();
+				if (location.isEmpty() || geonameId.isEmpty() || geonameId.indexOf('\t') >= 0) {
+					if (!line.trim().isEmpty()) {
+						skipped++;
+					}
+					continue;
+				}
+				geonameIds.put(location, geonameId);
+			}
+		}
+		if (skipped > 0) {
+			logger.warning("Skipped " + skipped + " custom mappings not of the form 'location TAB geonameid'");
+		}
+		return new CustomMappings(modified, geonameIds, -1, Collections.<String, FieldDoc>emptyMap());
+	}
+
+	/**
+	 * Finds the documents of the mapped places, each geonameid once however many locations map to it
+	 * @param reader - reader of the index, the resolved mappings are only valid for its version
+	 * @return mappings resolved against the version of the reader
+	 * @throws IOException
+	 */
+	CustomMappings resolve(IndexReader reader) throws IOException {
+		long indexVersion = ((DirectoryReader) reader).getVersion();
+		Map<String, FieldDoc> resolved = new HashMap<String, FieldDoc>();
+		// sorted ids let the terms dictionary be walked forwards
+		TreeSet<String> ids = new TreeSet<String>(geonameIds.values());
+		for (LeafReaderContext leaf : reader.leaves()) {
+			Terms terms = leaf.reader().terms("GeonameId");
+			if (terms == null) {
+				continue;
+			}
+			TermsEnum termsEnum = terms.iterator();
+			Bits liveDocs = leaf.reader().getLiveDocs();
+			PostingsEnum postings = null;
+			for (String id : ids) {
+				if (resolved.containsKey(id) || !termsEnum.seekExact(new BytesRef(id))) {
+					continue;
+				}
+				postings = termsEnum.postings(postings, PostingsEnum.NONE);
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					if (liveDocs == null || liveDocs.get(doc)) {
+						resolved.put(id, new FieldDoc(leaf.docBase + doc, Float.NaN, new Object[] {getPopulation(leaf, doc)}));
+						break;
+					}
+				}
+			}
+		}
+		if (resolved.size() < ids.size()) {
+			logger.warning((ids.size() - resolved.size()) + " geonameids of the custom mappings are not in the index");
+		}
+		return new CustomMappings(modified, geonameIds, indexVersion, resolved);
+	}
+
+	private static long getPopulation(LeafReaderContext leaf, int doc) throws IOException {
+		NumericDocValues values = leaf.reader().getNumericDocValues("Population");
+		return values != null && values.advanceExact(doc) ? values.longValue() : 0;
+	}
+
+	/**
+	 * @param location - location in a string
+	 * @return location in lower case with single spaces and its comma separated parts trimmed
+	 */
+	static String normalize(String location) {
+		String[] parts = location.split(",", -1);
+		StringBuilder normalized = new StringBuilder();
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				normalized.append(", ");
+			}
+			normalized.append(LuceneWriter.normalizeName(parts[i]));
+		}
+		return normalized.toString();
+	}
+
+}
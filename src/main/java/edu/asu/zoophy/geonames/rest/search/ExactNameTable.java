@@ -0,0 +1,170 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.InPlaceMergeSorter;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+/**
+ * Memory resident copy of the ExactName field of one version of the index. An FST maps each normalized
+ * name to an offset in a single array holding the number of places with that name followed by their
+ * document ids, ordered by population like the search results.
+ * @author amagge
+ */
+class ExactNameTable {
+
+	private static final Logger logger = Logger.getLogger("ExactNameTable");
+
+	private final long version;
+	private final FST<Long> names;
+	private final int[] docs;
+
+	private ExactNameTable(long version, FST<Long> names, int[] docs) {
+		this.version = version;
+		this.names = names;
+		this.docs = docs;
+	}
+
+	/**
+	 * @return version of the index the table was built from, its document ids are only valid for that version
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Same hits as a population sorted search for the name on the ExactName field
+	 * @param reader - reader of the version the table was built from
+	 * @param name - name normalized as at index time
+	 * @param numRecords - number of records to be returned
+	 * @return the most populated places with that name and the exact number of all of them
+	 * @throws IOException
+	 */
+	TopDocs lookup(IndexReader reader, String name, int numRecords) throws IOException {
+		Long offset = names == null ? null : Util.get(names, new BytesRef(name));
+		if (offset == null) {
+			return new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new FieldDoc[0]);
+		}
+		int start = offset.intValue();
+		int count = docs[start];
+		FieldDoc[] hits = new FieldDoc[Math.min(count, numRecords)];
+		List<LeafReaderContext> leaves = reader.leaves();
+		for (int i = 0; i < hits.length; i++) {
+			// the population is only read for the few records returned, to keep the table small
+			int doc = docs[start + 1 + i];
+			LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+			NumericDocValues values = DocValues.getNumeric(leaf.reader(), "Population");
+			long population = values.advanceExact(doc - leaf.docBase) ? values.longValue() : 0;
+			hits[i] = new FieldDoc(doc, Float.NaN, new Object[] {population});
+		}
+		return new TopDocs(new TotalHits(count, TotalHits.Relation.EQUAL_TO), hits);
+	}
+
+	/**
+	 * Reads the ExactName terms of the searcher's index
+	 * @param reader - reader of the index, the table is only valid for its version
+	 * @return table of the names, empty if the index was created without the ExactName field
+	 * @throws IOException
+	 */
+	static ExactNameTable build(IndexReader reader) throws IOException {
+		long version = ((DirectoryReader) reader).getVersion();
+		Terms terms = MultiTerms.getTerms(reader, "ExactName");
+		if (terms == null) {
+			logger.warning("Index has no ExactName field, it has to be created again for exact name lookups");
+			return new ExactNameTable(version, null, new int[0]);
+		}
+		long[] docPopulations = getPopulations(reader);
+		Bits liveDocs = MultiBits.getLiveDocs(reader);
+		Builder<Long> builder = new Builder<Long>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+		IntsRefBuilder scratch = new IntsRefBuilder();
+		int[] docs = new int[1024];
+		int size = 0;
+		int numNames = 0;
+		TermsEnum termsEnum = terms.iterator();
+		PostingsEnum postings = null;
+		for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+			postings = termsEnum.postings(postings, PostingsEnum.NONE);
+			int start = size;
+			docs = ArrayUtil.grow(docs, size + 1);
+			size++;
+			for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+				if (liveDocs == null || liveDocs.get(doc)) {
+					docs = ArrayUtil.grow(docs, size + 1);
+					docs[size++] = doc;
+				}
+			}
+			if (size == start + 1) {
+				// all places with this name were deleted
+				size = start;
+				continue;
+			}
+			docs[start] = size - start - 1;
+			sortByPopulation(docs, start + 1, size, docPopulations);
+			builder.add(Util.toIntsRef(term, scratch), (long) start);
+			numNames++;
+		}
+		FST<Long> names = builder.finish();
+		logger.info("Exact name table of " + numNames + " names uses "
+				+ (names == null ? 0 : names.ramBytesUsed() / 1024) + " KB for the names and " + size * 4 / 1024 + " KB for the places");
+		return new ExactNameTable(version, names, ArrayUtil.copyOfSubArray(docs, 0, size));
+	}
+
+	private static long[] getPopulations(IndexReader reader) throws IOException {
+		long[] populations = new long[reader.maxDoc()];
+		for (LeafReaderContext leaf : reader.leaves()) {
+			NumericDocValues values = leaf.reader().getNumericDocValues("Population");
+			if (values == null) {
+				continue;
+			}
+			for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+				populations[leaf.docBase + doc] = values.longValue();
+			}
+		}
+		return populations;
+	}
+
+	/**
+	 * Orders documents like the population sort of the searches, ties by document id
+	 */
+	private static void sortByPopulation(int[] docs, int from, int to, long[] populations) {
+		new InPlaceMergeSorter() {
+			@Override
+			protected int compare(int i, int j) {
+				int cmp = Long.compare(populations[docs[j]], populations[docs[i]]);
+				return cmp != 0 ? cmp : Integer.compare(docs[i], docs[j]);
+			}
+
+			@Override
+			protected void swap(int i, int j) {
+				int doc = docs[i];
+				docs[i] = docs[j];
+				docs[j] = doc;
+			}
+		}.sort(from, to);
+	}
+
+}
@@ -0,0 +1,95 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.util.List;
+
+/**
+ * Single location request in a batch, mirrors the parameters of the /location service
+ * location 	location in a string
+ * count 		number of records requested, default is used if missing
+ * mode 		search mode i.e. default, strict, full
+ * exact 		count all matching records, true if missing
+ * fields 		stored fields to be returned, all if missing
+ * cursor 		next cursor of the previous page, first page if missing
+ * @author amagge
+ */
+public class LocationQuery {
+
+	private String location;
+	private Integer count;
+	private String mode;
+	private Boolean exact;
+	private List<String> fields;
+	private String cursor;
+
+
+	public LocationQuery() {
+	}
+
+
+	public LocationQuery(String location, Integer count, String mode) {
+		this.location = location;
+		this.count = count;
+		this.mode = mode;
+	}
+
+
+	public String getLocation() {
+		return location;
+	}
+
+
+	public void setLocation(String location) {
+		this.location = location;
+	}
+
+
+	public Integer getCount() {
+		return count;
+	}
+
+
+	public void setCount(Integer count) {
+		this.count = count;
+	}
+
+
+	public String getMode() {
+		return mode;
+	}
+
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
+
+	public Boolean getExact() {
+		return exact;
+	}
+
+
+	public void setExact(Boolean exact) {
+		this.exact = exact;
+	}
+
+
+	public List<String> getFields() {
+		return fields;
+	}
+
+
+	public void setFields(List<String> fields) {
+		this.fields = fields;
+	}
+
+
+	public String getCursor() {
+		return cursor;
+	}
+
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
+}
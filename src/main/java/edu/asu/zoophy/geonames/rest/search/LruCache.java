@@ -0,0 +1,194 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, thread-safe cache evicting the least recently used entries, with an optional time-to-live
+ * per entry. Gets and puts do not lock: entries live in a ConcurrentHashMap and only remember when
+ * they were last read. Once the cache is over its size, one writer sweeps it and evicts the least
+ * recently read entries down to 90% of the size, so the size is approximate while a sweep runs.
+ * Keeps hit, miss and eviction counts so the cache can be sized from its stats.
+ * A size of 0 disables caching altogether.
+ * @author amagge
+ */
+public class LruCache<K, V> {
+
+	private final int maxSize;
+	private final long ttlMillis;
+	private final ConcurrentHashMap<K, Entry<V>> map;
+	private final ReentrantLock sweepLock = new ReentrantLock();
+	private volatile long generation = 0;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxSize - maximum number of entries, 0 disables the cache
+	 * @param ttlSeconds - seconds after which an entry expires, 0 keeps entries until evicted
+	 */
+	public LruCache(int maxSize, long ttlSeconds) {
+		this.maxSize = Math.max(0, maxSize);
+		this.ttlMillis = ttlSeconds * 1000;
+		this.map = new ConcurrentHashMap<K, Entry<V>>(Math.min(this.maxSize, 1 << 16));
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * @param key - cache key
+	 * @return cached value or null if missing or expired
+	 */
+	public V get(K key) {
+		if (!isEnabled()) {
+			return null;
+		}
+		Entry<V> entry = map.get(key);
+		if (entry != null && ttlMillis > 0 && System.currentTimeMillis() - entry.created > ttlMillis) {
+			if (map.remove(key, entry)) {
+				evictions.increment();
+			}
+			entry = null;
+		}
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		entry.accessed = System.nanoTime();
+		hits.increment();
+		return entry.value;
+	}
+
+	/**
+	 * Adds a value unless the cache was cleared after the given generation was read,
+	 * so a value computed against an old index does not outlive the reload.
+	 * @param key - cache key
+	 * @param value - value to be cached
+	 * @param generation - value of {@link #getGeneration()} before the value was computed
+	 */
+	public void put(K key, V value, long generation) {
+		if (!isEnabled() || generation != this.generation) {
+			return;
+		}
+		Entry<V> entry = new Entry<V>(value, System.currentTimeMillis(), System.nanoTime());
+		map.put(key, entry);
+		if (generation != this.generation) {
+			// cleared while the entry was added
+			map.remove(key, entry);
+			return;
+		}
+		if (map.size() > maxSize) {
+			sweep();
+		}
+	}
+
+	/**
+	 * Evicts the least recently read entries down to 90% of the size, skipped if another thread is sweeping
+	 */
+	private void sweep() {
+		if (!sweepLock.tryLock()) {
+			return;
+		}
+		try {
+			int size = map.size();
+			int target = size - maxSize + maxSize / 10;
+			if (size <= maxSize || target <= 0) {
+				return;
+			}
+			// access times are copied, entries read during the sweep may still be evicted
+			List<Candidate<K, V>> candidates = new ArrayList<Candidate<K, V>>(size);
+			for (Map.Entry<K, Entry<V>> entry : map.entrySet()) {
+				if (candidates.size() == size) {
+					break;
+				}
+				candidates.add(new Candidate<K, V>(entry.getKey(), entry.getValue()));
+			}
+			candidates.sort((a, b) -> Long.compare(a.accessed, b.accessed));
+			int evicted = 0;
+			for (int i = 0; i < Math.min(target, candidates.size()); i++) {
+				if (map.remove(candidates.get(i).key, candidates.get(i).entry)) {
+					evicted++;
+				}
+			}
+			evictions.add(evicted);
+		} finally {
+			sweepLock.unlock();
+		}
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Removes all entries, e.g. when the index was reloaded
+	 */
+	public synchronized void clear() {
+		generation++;
+		map.clear();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return size, hit, miss and eviction counts of the cache
+	 */
+	public Map<String, Object> getStats() {
+		long hits = getHits();
+		long misses = getMisses();
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("size", map.size());
+		stats.put("maxSize", maxSize);
+		stats.put("hits", hits);
+		stats.put("misses", misses);
+		stats.put("evictions", getEvictions());
+		stats.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+		return stats;
+	}
+
+	private static class Entry<V> {
+		private final V value;
+		private final long created;
+		private volatile long accessed;
+
+		private Entry(V value, long created, long accessed) {
+			this.value = value;
+			this.created = created;
+			this.accessed = accessed;
+		}
+	}
+
+	private static class Candidate<K, V> {
+		private final K key;
+		private final Entry<V> entry;
+		private final long accessed;
+
+		private Candidate(K key, Entry<V> entry) {
+			this.key = key;
+			this.entry = entry;
+			this.accessed = entry.accessed;
+		}
+	}
+
+}
@@ -1,46 +1,88 @@
 package edu.asu.zoophy.geonames.rest.search;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.LatLonPoint;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
-import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FileSwitchDirectory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import edu.asu.zoophy.geonames.indexer.LuceneWriter;
+import edu.asu.zoophy.geonames.indexer.NameSuggester;
 import edu.asu.zoophy.geonames.rest.exception.InvalidLuceneQueryException;
 import edu.asu.zoophy.geonames.rest.exception.LuceneSearcherException;
 
@@ -52,8 +94,84 @@ import edu.asu.zoophy.geonames.rest.exception.LuceneSearcherException;
 public class LuceneSearcher {
 	
 	private Directory indexDirectory;
-	private QueryParser queryParser;
-	private Map<String, String> custMap;
+	private SearcherManager searcherManager;
+	private ScheduledExecutorService refresher;
+	private ExecutorService batchExecutor;
+	private LruCache<String, Result> resultCache;
+	private Analyzer analyzer;
+	private ThreadLocal<QueryParser> queryParsers;
+	private LruCache<String, Query> queryCache;
+	private LruCache<String, List<String>> parentCache;
+	private final LongAdder parseCount = new LongAdder();
+	private final LongAdder parseNanos = new LongAdder();
+	private final LongAccumulator maxParseNanos = new LongAccumulator(Math::max, 0);
+	private final Path custMapFile;
+	private volatile CustomMappings customMappings;
+	private ScheduledExecutorService mappingChecker;
+	private volatile ExactNameTable exactNameTable;
+	private volatile AnalyzingSuggester suggester;
+	private volatile long suggesterModified = -1;
+	// version, schema and name deletes of the last index version searched, read again for a new version
+	private volatile long[] indexSettings = {-1, LuceneWriter.SCHEMA_PACKED, 0};
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+	private Timer acquireTimer;
+	private Map<String, Timer> tierTimers;
+	private Map<String, Counter> tierHits;
+	private DistributionSummary locationResults;
+	private DistributionSummary searchResults;
+
+	@Value("${lucene.searcher.refresh.interval:0}")
+	private Integer refreshInterval;
+
+	@Value("${lucene.batch.threads:0}")
+	private Integer batchThreads;
+
+	@Value("${lucene.cache.size:10000}")
+	private Integer cacheSize;
+
+	@Value("${lucene.cache.ttl:3600}")
+	private Integer cacheTtl;
+
+	@Value("${lucene.query.cache.size:1000}")
+	private Integer queryCacheSize;
+
+	@Value("${lucene.stream.page.size:1000}")
+	private Integer streamPageSize;
+
+	@Value("${lucene.exact.names:false}")
+	private Boolean exactNames;
+
+	@Value("${lucene.fuzzy.engine:automaton}")
+	private String fuzzyEngine;
+
+	@Value("${lucene.fuzzy.max.edits:1}")
+	private Integer fuzzyMaxEdits;
+
+	@Value("${lucene.fuzzy.max.candidates:50}")
+	private Integer fuzzyMaxCandidates;
+
+	@Value("${lucene.hierarchy.join:false}")
+	private Boolean hierarchyJoin;
+
+	@Value("${lucene.hierarchy.cache.size:10000}")
+	private Integer parentCacheSize;
+
+	@Value("${lucene.suggest.location:index/suggest.bin}")
+	private String suggestFile;
+
+	@Value("${lucene.log.sample.rate:0}")
+	private Integer logSampleRate;
+
+	@Value("${geonames.mapping.check.interval:10}")
+	private Integer mappingCheckInterval;
+
+	// parents with more places of the same name are narrowed to the most populated ones
+	private static final int MAX_PARENTS = 1024;
+
+	// queries tried by a location search, in order, and "none" when no query found the location
+	private static final String[] TIERS = {"custom", "exact", "hierarchy", "strict", "full", "fuzzy", "empty", "none"};
 
 	private final static Logger logger = Logger.getLogger("LuceneSearcher");
 	
@@ -61,42 +179,473 @@ public class LuceneSearcher {
 	 * Method that starts the Lucene Service and sanity checks the index
 	 */
 	public LuceneSearcher(@Value("${lucene.index.location}") String indexLocation,
-							@Value("${geonames.mapping.file}") String custMapFile) throws LuceneSearcherException {
+							@Value("${geonames.mapping.file}") String custMapFile,
+							@Value("${lucene.preload.extensions:}") String preloadExtensions) throws LuceneSearcherException {
 		try {
 			Path index = Paths.get(indexLocation);
-			indexDirectory = FSDirectory.open(index);
-			Analyzer analyzer = new StandardAnalyzer(LuceneWriter.stopWordsOverride);
-			queryParser = new QueryParser("Name", analyzer); 
+			indexDirectory = openDirectory(index, preloadExtensions);
+			analyzer = new StandardAnalyzer(LuceneWriter.stopWordsOverride);
+			// QueryParser is not thread-safe, each request thread gets its own
+			queryParsers = ThreadLocal.withInitial(() -> new QueryParser("Name", analyzer));
+			searcherManager = new SearcherManager(indexDirectory, null);
 			logger.info("Connected to Index at: "+indexLocation);
-			IndexReader reader = DirectoryReader.open(indexDirectory);
-			logger.info("Number of docs: "+reader.numDocs());
-			if(reader.numDocs()>0){
-				logger.info("Getting fields for a sample document in the index. . .");
-				reader.document(1).getFields();
-				List<IndexableField> fields = reader.document(1).getFields();
-				for(int i=0; i<fields.size();i++){
-					logger.info(i+1 + ") " + fields.get(i).name() + ":"+ fields.get(i).stringValue());
+			IndexSearcher indexSearcher = searcherManager.acquire();
+			try {
+				IndexReader reader = indexSearcher.getIndexReader();
+				logger.info("Number of docs: "+reader.numDocs());
+				if(reader.numDocs()>0){
+					logger.info("Getting fields for a sample document in the index. . .");
+					List<IndexableField> fields = reader.document(1).getFields();
+					for(int i=0; i<fields.size();i++){
+						logger.info(i+1 + ") " + fields.get(i).name() + ":"+ fields.get(i).stringValue());
+					}
+				} else {
+					logger.warning("Index is empty!!");
 				}
-			} else {
-				logger.warning("Index is empty!!");
+			} finally {
+				searcherManager.release(indexSearcher);
 			}
-			reader.close();
-			// Load the map
-			logger.info("Loading custom map");
-			custMap = getCustomMap(custMapFile);
-			logger.info("Loaded custom map :" + custMap.size());
+			this.custMapFile = Paths.get(custMapFile);
+			customMappings = CustomMappings.read(this.custMapFile);
 		} catch (IOException ioe) {
 			logger.log(Level.SEVERE, "Could not open Lucene Index at: "+indexLocation+ " : "+ioe.getMessage());
 			throw new LuceneSearcherException("Could not open Lucene Index at: "+indexLocation+ " : "+ioe.getMessage());
 		}
 	}
 	
+	/**
+	 * Opens the index, memory mapping the files with the given extensions and reading them into the page
+	 * cache as they are opened, so the first requests do not wait for them to be read from disk
+	 * @param index - directory of the index
+	 * @param preloadExtensions - comma separated extensions of the files to be preloaded, none if empty
+	 * @return directory of the index
+	 * @throws IOException
+	 */
+	private static Directory openDirectory(Path index, String preloadExtensions) throws IOException {
+		Set<String> extensions = new HashSet<String>();
+		for (String extension : preloadExtensions.split(",")) {
+			if (!extension.trim().isEmpty()) {
+				extensions.add(extension.trim().replaceFirst("^\\.", ""));
+			}
+		}
+		if (extensions.isEmpty()) {
+			return FSDirectory.open(index);
+		}
+		MMapDirectory preloaded = new MMapDirectory(index);
+		preloaded.setPreload(true);
+		logger.info("Preloading index files: " + extensions);
+		return new FileSwitchDirectory(extensions, preloaded, new MMapDirectory(index), true);
+	}
+
+	/**
+	 * Starts the service in order: metrics and caches first, then the structures built from the index,
+	 * then the listener that rebuilds them for every new version of the index and finally the threads
+	 * that refresh the index and check the mappings file, so none of them sees a field not yet created.
+	 */
+	@PostConstruct
+	private void init() {
+		startMetrics();
+		startCaches();
+		startBatchExecutor();
+		if (exactNames != null && exactNames) {
+			loadExactNames();
+		}
+		if (hasSuggester()) {
+			loadSuggester();
+		}
+		loadCustomMappings(false);
+		searcherManager.addListener(new ReferenceManager.RefreshListener() {
+			@Override
+			public void beforeRefresh() {
+			}
+
+			@Override
+			public void afterRefresh(boolean didRefresh) {
+				if (didRefresh) {
+					refreshIndexStructures();
+				}
+			}
+		});
+		startMappingChecker();
+		startRefresher();
+	}
+
+	/**
+	 * Rebuilds what depends on the version of the index, then clears the caches, so results cached
+	 * while the structures were rebuilt are dropped as well. Until a structure is rebuilt, searches
+	 * use the one of the previous version, or fall back to the index as before it was loaded.
+	 */
+	private void refreshIndexStructures() {
+		if (exactNames != null && exactNames) {
+			loadExactNames();
+		}
+		if (hasSuggester()) {
+			loadSuggester();
+		}
+		loadCustomMappings(false);
+		parentCache.clear();
+		resultCache.clear();
+		logger.info("Cleared result cache after index refresh");
+	}
+
+	/**
+	 * Registers the timers and counters of the searches, kept in memory if the service has no registry.
+	 * Timers publish histograms so percentiles can be computed across instances.
+	 */
+	private void startMetrics() {
+		MeterRegistry meterRegistry = getMeterRegistry();
+		acquireTimer = Timer.builder("geonames.searcher.acquire")
+				.description("Time to acquire an index searcher")
+				.publishPercentileHistogram().register(meterRegistry);
+		tierTimers = new HashMap<String, Timer>();
+		tierHits = new HashMap<String, Counter>();
+		for (String tier : TIERS) {
+			tierTimers.put(tier, Timer.builder("geonames.location.tier")
+					.description("Time to run a query of a location search")
+					.tag("tier", tier).publishPercentileHistogram().register(meterRegistry));
+			tierHits.put(tier, Counter.builder("geonames.location.resolved")
+					.description("Location searches by the query that found the location")
+					.tag("tier", tier).register(meterRegistry));
+		}
+		locationResults = DistributionSummary.builder("geonames.location.results")
+				.description("Records returned per location search").register(meterRegistry);
+		searchResults = DistributionSummary.builder("geonames.search.results")
+				.description("Records returned per /search query").register(meterRegistry);
+	}
+
+	private MeterRegistry getMeterRegistry() {
+		if (meterRegistry == null) {
+			meterRegistry = new SimpleMeterRegistry();
+		}
+		return meterRegistry;
+	}
+
+	/**
+	 * Exposes the hit, miss and eviction counts and the size of a cache
+	 * @param cache - cache to be measured
+	 * @param name - name of the cache
+	 */
+	private void registerCache(LruCache<?, ?> cache, String name) {
+		MeterRegistry meterRegistry = getMeterRegistry();
+		FunctionCounter.builder("geonames.cache.gets", cache, LruCache::getHits)
+				.tag("cache", name).tag("result", "hit").register(meterRegistry);
+		FunctionCounter.builder("geonames.cache.gets", cache, LruCache::getMisses)
+				.tag("cache", name).tag("result", "miss").register(meterRegistry);
+		FunctionCounter.builder("geonames.cache.evictions", cache, LruCache::getEvictions)
+				.tag("cache", name).register(meterRegistry);
+		Gauge.builder("geonames.cache.size", cache, LruCache::size)
+				.tag("cache", name).register(meterRegistry);
+	}
+
+	/**
+	 * Creates the result cache and the cache of parent names resolved to geonameids, both cleared with
+	 * every new version of the index, and the cache of parsed /search queries, which do not depend on
+	 * the index and are kept across reloads
+	 */
+	private void startCaches() {
+		resultCache = new LruCache<String, Result>(cacheSize, cacheTtl);
+		registerCache(resultCache, "result");
+		logger.info("Result cache size: " + cacheSize + ", TTL: " + cacheTtl + " seconds");
+		queryCache = new LruCache<String, Query>(queryCacheSize, 0);
+		registerCache(queryCache, "query");
+		logger.info("Query cache size: " + queryCacheSize);
+		parentCache = new LruCache<String, List<String>>(hierarchyJoin ? parentCacheSize : 0, 0);
+		registerCache(parentCache, "parent");
+		if (hierarchyJoin) {
+			logger.info("Parent cache size: " + parentCacheSize);
+		}
+	}
+
+	/**
+	 * Loads the exact name table, if enabled, for the current version of the index.
+	 * Until a new table is loaded, exact names are searched in the index.
+	 */
+	private void loadExactNames() {
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = searcherManager.acquire();
+			long start = System.currentTimeMillis();
+			exactNameTable = ExactNameTable.build(indexSearcher.getIndexReader());
+			logger.info("Loaded exact name table in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException ioe) {
+			logger.warning("Could not load exact name table: "+ioe.getMessage());
+		} finally {
+			release(indexSearcher);
+		}
+	}
+
+	private boolean hasSuggester() {
+		return suggestFile != null && !suggestFile.trim().isEmpty();
+	}
+
+	/**
+	 * Loads the name suggestions built by the indexer if the file is newer than the one loaded.
+	 * Until then, /suggest answers from the suggestions already loaded.
+	 */
+	private void loadSuggester() {
+		Path file = Paths.get(suggestFile.trim());
+		try {
+			if (!Files.exists(file)) {
+				logger.warning("No name suggestions at '" + file + "', they are built when the index is created");
+				return;
+			}
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			if (modified == suggesterModified) {
+				return;
+			}
+			long start = System.currentTimeMillis();
+			suggester = NameSuggester.load(file);
+			suggesterModified = modified;
+			logger.info("Loaded " + suggester.getCount() + " name suggestions in " + (System.currentTimeMillis() - start)
+					+ " ms using " + suggester.ramBytesUsed() / 1024 + " KB");
+		} catch (IOException ioe) {
+			logger.warning("Could not load name suggestions: "+ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Checks the mappings file for changes if a check interval (seconds) is configured
+	 */
+	private void startMappingChecker() {
+		if (mappingCheckInterval != null && mappingCheckInterval > 0) {
+			mappingChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "custom-mappings-check");
+				thread.setDaemon(true);
+				return thread;
+			});
+			mappingChecker.scheduleWithFixedDelay(() -> loadCustomMappings(true),
+					mappingCheckInterval, mappingCheckInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Resolves the custom mappings against the current version of the index. Until the mappings are
+	 * resolved, mapped locations are searched by geonameid.
+	 * @param reread - read the mappings file again if it was modified, otherwise only resolve the mappings
+	 * against a new version of the index
+	 */
+	private synchronized void loadCustomMappings(boolean reread) {
+		IndexSearcher indexSearcher = null;
+		try {
+			long start = System.currentTimeMillis();
+			CustomMappings mappings = customMappings;
+			boolean changed = false;
+			if (reread) {
+				long modified = Files.exists(custMapFile) ? Files.getLastModifiedTime(custMapFile).toMillis() : -1;
+				if (modified != mappings.getModified()) {
+					mappings = CustomMappings.read(custMapFile);
+					changed = true;
+				}
+			}
+			indexSearcher = searcherManager.acquire();
+			if (!changed && mappings.getVersion() == getVersion(indexSearcher)) {
+				return;
+			}
+			customMappings = mappings.resolve(indexSearcher.getIndexReader());
+			if (changed) {
+				// cached results of mapped locations may now be mapped differently
+				resultCache.clear();
+			}
+			logger.info("Loaded " + mappings.size() + " custom mappings in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException ioe) {
+			logger.warning("Could not load custom mappings: "+ioe.getMessage());
+		} finally {
+			release(indexSearcher);
+		}
+	}
+
+	/**
+	 * @return hit, miss and eviction counts of the parent name cache
+	 */
+	public Map<String, Object> getParentCacheStats() {
+		return parentCache.getStats();
+	}
+
+	/**
+	 * @return hit, miss and eviction counts of the result cache
+	 */
+	public Map<String, Object> getCacheStats() {
+		return resultCache.getStats();
+	}
+
+	/**
+	 * @return hit, miss and eviction counts of the parsed query cache
+	 */
+	public Map<String, Object> getQueryCacheStats() {
+		return queryCache.getStats();
+	}
+
+	/**
+	 * @return number of /search queries parsed and their mean and maximum parse time in microseconds
+	 */
+	public Map<String, Object> getParseStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		long count = parseCount.sum();
+		stats.put("parsed", count);
+		stats.put("meanMicros", count == 0 ? 0 : parseNanos.sum() / count / 1000);
+		stats.put("maxMicros", maxParseNanos.get() / 1000);
+		return stats;
+	}
+
+	/**
+	 * Parses a /search query string, reusing the query of an earlier identical string
+	 * @param querystring - valid Lucene query string
+	 * @return parsed query
+	 * @throws ParseException
+	 */
+	private Query parseQuery(String querystring) throws ParseException {
+		Query query = queryCache.get(querystring);
+		if (query == null) {
+			long start = System.nanoTime();
+			query = queryParsers.get().parse(querystring);
+			long nanos = System.nanoTime() - start;
+			parseCount.increment();
+			parseNanos.add(nanos);
+			maxParseNanos.accumulate(nanos);
+			queryCache.put(querystring, query, queryCache.getGeneration());
+		}
+		return query;
+	}
+
+	/**
+	 * Creates the thread pool used for batch location searches, one thread per core unless configured
+	 */
+	private void startBatchExecutor() {
+		if (batchThreads == null || batchThreads <= 0) {
+			batchThreads = Runtime.getRuntime().availableProcessors();
+		}
+		batchExecutor = Executors.newFixedThreadPool(batchThreads, runnable -> {
+			Thread thread = new Thread(runnable, "lucene-batch-search");
+			thread.setDaemon(true);
+			return thread;
+		});
+		logger.info("Batch searches will use " + batchThreads + " threads");
+	}
+
+	/**
+	 * Schedules periodic checks for index changes if a refresh interval (seconds) is configured.
+	 * Without it, a rebuilt index is only picked up through {@link #reload()}.
+	 */
+	private void startRefresher() {
+		if (refreshInterval != null && refreshInterval > 0) {
+			refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "lucene-searcher-refresh");
+				thread.setDaemon(true);
+				return thread;
+			});
+			refresher.scheduleWithFixedDelay(() -> {
+				try {
+					searcherManager.maybeRefresh();
+				} catch (IOException ioe) {
+					logger.warning("Could not refresh IndexSearcher: "+ioe.getMessage());
+				}
+			}, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+			logger.info("Checking index for changes every " + refreshInterval + " seconds");
+		}
+	}
+
+	/**
+	 * Swaps in the latest commit of the index, e.g. after it was rebuilt with the create command.
+	 * Requests already running finish on the searcher they acquired.
+	 * @return number of documents in the reloaded index
+	 * @throws LuceneSearcherException
+	 */
+	public int reload() throws LuceneSearcherException {
+		IndexSearcher indexSearcher = null;
+		try {
+			searcherManager.maybeRefreshBlocking();
+			indexSearcher = searcherManager.acquire();
+			int numDocs = indexSearcher.getIndexReader().numDocs();
+			logger.info("Reloaded index, number of docs: "+numDocs);
+			return numDocs;
+		} catch (IOException ioe) {
+			throw new LuceneSearcherException("Could not reload Lucene Index: "+ioe.getMessage());
+		} finally {
+			release(indexSearcher);
+		}
+	}
+
+	/**
+	 * @param indexSearcher - searcher acquired from the SearcherManager
+	 * @return version of the index the searcher reads, which changes whenever a new commit is loaded
+	 */
+	private static long getVersion(IndexSearcher indexSearcher) {
+		return ((DirectoryReader) indexSearcher.getIndexReader()).getVersion();
+	}
+
+	/**
+	 * @param indexSearcher - searcher acquired from the SearcherManager
+	 * @return layout of the documents, stored in the commit data when the index was created
+	 * @throws IOException
+	 */
+	private int getSchema(IndexSearcher indexSearcher) throws IOException {
+		return (int) getIndexSettings(indexSearcher)[1];
+	}
+
+	/**
+	 * @param indexSearcher - searcher acquired from the SearcherManager
+	 * @return edit distance covered by the NameDeletes field, 0 if the index was created without it
+	 * @throws IOException
+	 */
+	private int getNameDeletes(IndexSearcher indexSearcher) throws IOException {
+		return (int) getIndexSettings(indexSearcher)[2];
+	}
+
+	private long[] getIndexSettings(IndexSearcher indexSearcher) throws IOException {
+		long version = getVersion(indexSearcher);
+		long[] settings = indexSettings;
+		if (settings[0] != version) {
+			Map<String, String> commitData = ((DirectoryReader) indexSearcher.getIndexReader()).getIndexCommit().getUserData();
+			String schema = commitData.get(LuceneWriter.SCHEMA_KEY);
+			String nameDeletes = commitData.get(LuceneWriter.NAME_DELETES_KEY);
+			settings = new long[] {version,
+					schema == null ? LuceneWriter.SCHEMA_PACKED : Integer.parseInt(schema),
+					nameDeletes == null ? 0 : Integer.parseInt(nameDeletes)};
+			indexSettings = settings;
+		}
+		return settings;
+	}
+
+	/**
+	 * @return searcher of the latest index version loaded, to be released after use
+	 * @throws IOException
+	 */
+	private IndexSearcher acquire() throws IOException {
+		long start = System.nanoTime();
+		IndexSearcher indexSearcher = searcherManager.acquire();
+		acquireTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return indexSearcher;
+	}
+
+	/**
+	 * Returns a searcher acquired from the SearcherManager
+	 * @param indexSearcher - searcher to be released, ignored if null
+	 */
+	private void release(IndexSearcher indexSearcher) {
+		if (indexSearcher != null) {
+			try {
+				searcherManager.release(indexSearcher);
+			}
+			catch (IOException ioe) {
+				logger.warning("Could not release IndexSearcher: "+ioe.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * Closes Lucene resources
 	 */
 	@PreDestroy
 	private void close() {
 		try {
+			if (refresher != null) {
+				refresher.shutdownNow();
+			}
+			if (mappingChecker != null) {
+				mappingChecker.shutdownNow();
+			}
+			batchExecutor.shutdownNow();
+			searcherManager.close();
 			indexDirectory.close();
 			logger.info("Lucene Index closed");
 		}
@@ -110,231 +659,658 @@ public class LuceneSearcher {
 	 * @param querystring - valid Lucene query string
 	 * @param numRecords - number of requested records 
 	 * @param showAvailable - check for number of matching available records 
+	 * @param fields - stored fields to be returned, all if null or empty
+	 * @param cursor - next cursor of the previous page, null for the first page
 	 * @return Top Lucene query results as a Result object
 	 * @throws LuceneSearcherException 
 	 * @throws InvalidLuceneQueryException 
 	 */
-	public Result searchIndex(String querystring, int numRecords, boolean showAvailable) throws LuceneSearcherException, InvalidLuceneQueryException {
-		IndexReader reader = null;
+	public Result searchIndex(String querystring, int numRecords, boolean showAvailable, List<String> fields, String cursor) throws LuceneSearcherException, InvalidLuceneQueryException {
 		IndexSearcher indexSearcher = null;
 		Query query;
 		TopDocs documents;
-		TotalHitCountCollector collector = null;
+		Set<String> fieldSet = getFieldSet(fields);
+		String cacheKey = "search\t" + querystring + "\t" + numRecords + "\t" + showAvailable + "\t" + fieldSet + "\t" + cursor;
+		Result cached = resultCache.get(cacheKey);
+		if (cached != null) {
+			return cached;
+		}
+		long cacheGeneration = resultCache.getGeneration();
 		try {
-			reader = DirectoryReader.open(indexDirectory);
-			indexSearcher = new IndexSearcher(reader);
-			query = queryParser.parse(querystring);
-			logger.info("'" + querystring + "' ==> '" + query.toString() + "'");
-			if(showAvailable){
-				collector = new TotalHitCountCollector();
-				indexSearcher.search(query, collector);
-			}
-
-			SortField sortField = new SortField("Population", SortField.Type.LONG, true);
-			Sort sort = new Sort(sortField);
-			documents = indexSearcher.search(query, numRecords, sort);
+			indexSearcher = acquire();
+			long indexVersion = getVersion(indexSearcher);
+			FieldDoc after = cursor == null ? null
+					: Cursor.decode(cursor, indexVersion, indexSearcher.getIndexReader().maxDoc(), 1).getAfter();
+			query = parseQuery(querystring);
+			logQuery(isSampled(), querystring, query);
+			documents = searchByPopulation(indexSearcher, query, numRecords, showAvailable, after);
 
 			//documents = indexSearcher.search(query, numRecords);
-			List<Map<String,String>> mapList = new LinkedList<Map<String,String>>();
-			for (ScoreDoc scoreDoc : documents.scoreDocs) {
-				Document document = indexSearcher.doc(scoreDoc.doc);
-				Map<String,String> docMap = new HashMap<String,String>();
-				List<IndexableField> fields = document.getFields();
-				for(IndexableField field : fields){
-					docMap.put(field.name(), field.stringValue());
-				}
-				mapList.add(docMap);
+			List<Map<String,String>> mapList = getRecords(indexSearcher, documents.scoreDocs, fieldSet);
+			String next = null;
+			if (mapList.size() > 0 && mapList.size() == numRecords) {
+				next = Cursor.encode(indexVersion, 0, (FieldDoc) documents.scoreDocs[numRecords - 1]);
 			}
 			Result result = new Result(mapList, 
 					mapList.size(), 
-					collector==null?(mapList.size() < numRecords?mapList.size():-1)
-							:collector.getTotalHits());
+					!showAvailable?(mapList.size() < numRecords && after == null?mapList.size():-1)
+							:(int) documents.totalHits.value,
+					next);
+			searchResults.record(mapList.size());
+			resultCache.put(cacheKey, result, cacheGeneration);
 			return result;
 		} catch (ParseException pe) {
 			throw new InvalidLuceneQueryException(pe.getMessage());
+		} catch (InvalidLuceneQueryException iqe) {
+			throw iqe;
 		} catch (Exception e) {
 			throw new LuceneSearcherException(e.getMessage());
 		} finally {
-			try {
-				if (reader != null) {
-					reader.close();
+			release(indexSearcher);
+		}
+	}
+
+	/**
+	 * Hands all records matching querystring to a handler, page by page with searchAfter,
+	 * so only one page of records is held in memory however many records match
+	 * @param querystring - valid Lucene query string
+	 * @param maxRecords - maximum number of records to be streamed
+	 * @param fields - stored fields to be returned, all if null or empty
+	 * @param handler - receives the records in order of population
+	 * @return number of records streamed
+	 * @throws LuceneSearcherException 
+	 * @throws InvalidLuceneQueryException 
+	 */
+	public long streamIndex(String querystring, long maxRecords, List<String> fields, RecordHandler handler)
+			throws LuceneSearcherException, InvalidLuceneQueryException {
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
+			Query query = parseQuery(querystring);
+			logQuery(isSampled(), querystring, query);
+			Set<String> fieldSet = getFieldSet(fields);
+			FieldDoc after = null;
+			long streamed = 0;
+			while (streamed < maxRecords) {
+				int pageSize = (int) Math.min(streamPageSize, maxRecords - streamed);
+				TopDocs page = searchByPopulation(indexSearcher, query, pageSize, false, after);
+				for (Map<String,String> record : getRecords(indexSearcher, page.scoreDocs, fieldSet)) {
+					handler.handle(record);
 				}
+				streamed += page.scoreDocs.length;
+				if (page.scoreDocs.length < pageSize) {
+					break;
+				}
+				after = (FieldDoc) page.scoreDocs[pageSize - 1];
 			}
-			catch (IOException ioe) {
-				logger.warning("Could not close IndexReader: "+ioe.getMessage()); 
-			}
+			return streamed;
+		} catch (ParseException pe) {
+			throw new InvalidLuceneQueryException(pe.getMessage());
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			release(indexSearcher);
 		}
 	}
 
+	/**
+	 * Receives the records of a streamed search
+	 */
+	public interface RecordHandler {
+		void handle(Map<String,String> record) throws IOException;
+	}
+
 	/**
 	 * Search Lucene Index for a location and return best matched record
 	 * @param location - location in a string
 	 * @param maxRecs - maximum records to be returned
 	 * @param mode - search mode i.e. default, strict, full (more needs to be added)
+	 * @param exact - count all matching records, otherwise available is -1 once maxRecs are found
+	 * @param fields - stored fields to be returned, all if null or empty
+	 * @param cursor - next cursor of the previous page, null for the first page
 	 * @return Top Lucene query result as a Result object
 	 * @throws LuceneSearcherException 
 	 * @throws InvalidLuceneQueryException 
 	 */
-	public Result searchLocation(String location, int maxRecs, String mode) throws LuceneSearcherException, InvalidLuceneQueryException {
-		IndexReader reader = null;
+	public Result searchLocation(String location, int maxRecs, String mode, boolean exact, List<String> fields, String cursor) throws LuceneSearcherException, InvalidLuceneQueryException {
 		IndexSearcher indexSearcher = null;
-		TopDocs documents;
-		TotalHitCountCollector collector = null;
+		// read before the searcher is acquired, so a result of an index replaced meanwhile is not cached
+		long cacheGeneration = resultCache.getGeneration();
 		try {
-			reader = DirectoryReader.open(indexDirectory);
-			indexSearcher = new IndexSearcher(reader);
-			List<Map<String,String>> mapList = new LinkedList<Map<String,String>>();
-			Result result = new Result(mapList, mapList.size(), 0);
-			List<Query> queries = getQueries(location.trim(), mode);
-			for (Query query : queries) {
-				logger.info("'" + location + "' ==> '" + query.toString() + "'");
-				collector = new TotalHitCountCollector();
-				SortField sortField = new SortField("Population", SortField.Type.LONG, true);
-				Sort sort = new Sort(sortField);
-				indexSearcher.search(query, collector);
-				int totalCounts = collector.getTotalHits();
-				if (totalCounts > 0){
-					int numRecords = Math.min(totalCounts, maxRecs);
-					documents = indexSearcher.search(query, numRecords, sort);
-					for (ScoreDoc scoreDoc : documents.scoreDocs) {
-						Document document = indexSearcher.doc(scoreDoc.doc);
-						Map<String,String> docMap = new HashMap<String,String>();
-						List<IndexableField> fields = document.getFields();
-						for(IndexableField field : fields){
-							docMap.put(field.name(), field.stringValue());
+			indexSearcher = acquire();
+			return searchLocation(indexSearcher, location, maxRecs, mode, exact, getFieldSet(fields), cursor, cacheGeneration);
+		} catch (InvalidLuceneQueryException iqe) {
+			throw iqe;
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			release(indexSearcher);
+		}
+	}
+
+	/**
+	 * Search Lucene Index for a batch of locations in parallel, all against the same searcher
+	 * @param locationQueries - locations with their count and mode, count must already be set
+	 * @return Top Lucene query results as Result objects in the same order as the given locations
+	 * @throws LuceneSearcherException 
+	 * @throws InvalidLuceneQueryException if a cursor is not valid for the current index
+	 */
+	public List<Result> searchLocations(List<LocationQuery> locationQueries) throws LuceneSearcherException, InvalidLuceneQueryException {
+		IndexSearcher indexSearcher = null;
+		// read before the searcher is acquired, so results of an index replaced during the batch are not cached
+		long cacheGeneration = resultCache.getGeneration();
+		try {
+			indexSearcher = acquire();
+			final IndexSearcher batchSearcher = indexSearcher;
+			final Result[] results = new Result[locationQueries.size()];
+			// split into contiguous chunks, one per thread, to keep the task overhead low
+			int chunkSize = (locationQueries.size() + batchThreads - 1) / batchThreads;
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int start = 0; start < locationQueries.size(); start += chunkSize) {
+				final int from = start;
+				final int to = Math.min(start + chunkSize, locationQueries.size());
+				tasks.add(() -> {
+					for (int i = from; i < to; i++) {
+						LocationQuery locationQuery = locationQueries.get(i);
+						if (locationQuery.getLocation() == null || locationQuery.getLocation().trim().isEmpty()) {
+							results[i] = new Result(new ArrayList<Map<String,String>>(0), 0, 0);
+						} else {
+							results[i] = searchLocation(batchSearcher, locationQuery.getLocation(), locationQuery.getCount(),
+									locationQuery.getMode(), locationQuery.getExact() == null || locationQuery.getExact(),
+									getFieldSet(locationQuery.getFields()), locationQuery.getCursor(), cacheGeneration);
 						}
-						mapList.add(docMap);
 					}
-					result = new Result(mapList, mapList.size(), totalCounts);
-					// break if already found based on search mode
-					break;
-				}
+					return null;
+				});
 			}
-			return result;
+			for (Future<Void> future : batchExecutor.invokeAll(tasks)) {
+				future.get();
+			}
+			return Arrays.asList(results);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof InvalidLuceneQueryException) {
+				throw new InvalidLuceneQueryException(ee.getCause().getMessage());
+			}
+			throw new LuceneSearcherException(ee.getCause().getMessage());
 		} catch (Exception e) {
 			throw new LuceneSearcherException(e.getMessage());
 		} finally {
-			try {
-				if (reader != null) {
-					reader.close();
+			release(indexSearcher);
+		}
+	}
+
+	/**
+	 * Suggests places whose names or alternate names start with a prefix, from the suggestions built
+	 * with the index without searching it. Each name suggests its most populated place.
+	 * @param prefix - beginning of a place name
+	 * @param count - maximum number of places to be returned
+	 * @return places with their GeonameId, Name, Population and the suggested name as Match, most populated first
+	 * @throws LuceneSearcherException if no suggestions are loaded
+	 */
+	public Result suggest(String prefix, int count) throws LuceneSearcherException {
+		AnalyzingSuggester current = suggester;
+		if (current == null) {
+			throw new LuceneSearcherException("Name suggestions are not available, the index has to be created again");
+		}
+		List<Map<String,String>> mapList = new ArrayList<Map<String,String>>();
+		String key = LuceneWriter.normalizeName(prefix);
+		if (key.isEmpty()) {
+			return new Result(mapList, 0, -1);
+		}
+		try {
+			// names of the same place are suggested once, a few extra are looked up to make up for them
+			Set<String> ids = new HashSet<String>();
+			for (LookupResult suggestion : current.lookup(key, false, count * 4)) {
+				String[] place = NameSuggester.getPlace(suggestion.payload);
+				if (ids.add(place[0])) {
+					Map<String,String> record = new LinkedHashMap<String,String>();
+					record.put("GeonameId", place[0]);
+					record.put("Name", place[1]);
+					record.put("Population", String.valueOf(suggestion.value));
+					record.put("Match", suggestion.key.toString());
+					mapList.add(record);
+					if (mapList.size() == count) {
+						break;
+					}
 				}
 			}
-			catch (IOException ioe) {
-				logger.warning("Could not close IndexReader: "+ioe.getMessage()); 
+		} catch (IOException | RuntimeException e) {
+			throw new LuceneSearcherException(e.getMessage());
+		}
+		return new Result(mapList, mapList.size(), -1);
+	}
+
+	/**
+	 * Search Lucene Index for the places nearest to a coordinate. Candidates are found with
+	 * the points index and ranked by distance from doc values, without loading any other field.
+	 * @param latitude - latitude in degrees
+	 * @param longitude - longitude in degrees
+	 * @param radius - maximum distance in kilometers
+	 * @param maxRecs - maximum records to be returned
+	 * @param codes - feature codes to be returned, all if empty
+	 * @param classes - feature classes to be returned, all if empty
+	 * @param fields - stored fields to be returned, all if null or empty
+	 * @return nearest places as a Result object, each with its Distance in kilometers
+	 * @throws LuceneSearcherException
+	 */
+	public Result searchReverse(double latitude, double longitude, double radius, int maxRecs,
+			List<String> codes, List<String> classes, List<String> fields) throws LuceneSearcherException {
+		IndexSearcher indexSearcher = null;
+		try {
+			indexSearcher = acquire();
+			BooleanQuery.Builder boolQueryBuilder = new BooleanQuery.Builder();
+			boolQueryBuilder.add(LatLonPoint.newDistanceQuery("Location", latitude, longitude, radius * 1000), BooleanClause.Occur.FILTER);
+			if (!codes.isEmpty()) {
+				boolQueryBuilder.add(getTermsQuery("Code", codes), BooleanClause.Occur.FILTER);
+			}
+			if (!classes.isEmpty()) {
+				boolQueryBuilder.add(getTermsQuery("Class", classes), BooleanClause.Occur.FILTER);
+			}
+			Sort sort = new Sort(LatLonDocValuesField.newDistanceSort("Location", latitude, longitude));
+			TopFieldDocs documents = indexSearcher.search(boolQueryBuilder.build(), maxRecs, sort);
+			List<Map<String,String>> mapList = getRecords(indexSearcher, documents.scoreDocs, getFieldSet(fields));
+			for (int i = 0; i < mapList.size(); i++) {
+				double meters = (Double) ((FieldDoc) documents.scoreDocs[i]).fields[0];
+				mapList.get(i).put("Distance", String.format(Locale.ROOT, "%.3f", meters / 1000));
+			}
+			return new Result(mapList, mapList.size(), mapList.size() < maxRecs ? mapList.size() : -1);
+		} catch (Exception e) {
+			throw new LuceneSearcherException(e.getMessage());
+		} finally {
+			release(indexSearcher);
+		}
+	}
+
+	/**
+	 * @param field - untokenized field
+	 * @param values - values to match
+	 * @return query matching any of the values
+	 */
+	private static Query getTermsQuery(String field, List<String> values) {
+		if (values.size() == 1) {
+			return new TermQuery(new Term(field, values.get(0)));
+		}
+		List<BytesRef> terms = new ArrayList<BytesRef>();
+		for (String value : values) {
+			terms.add(new BytesRef(value));
+		}
+		return new TermInSetQuery(field, terms);
+	}
+
+	/**
+	 * Search for a location using an already acquired searcher
+	 * @param indexSearcher - searcher acquired from the SearcherManager
+	 * @param location - location in a string
+	 * @param maxRecs - maximum records to be returned
+	 * @param mode - search mode i.e. default, strict, full (more needs to be added)
+	 * @param exact - count all matching records, otherwise available is -1 once maxRecs are found
+	 * @param fields - stored fields to be returned, null for all
+	 * @param cursor - next cursor of the previous page, null for the first page
+	 * @param cacheGeneration - generation of the result cache read before the searcher was acquired
+	 * @return Top Lucene query result as a Result object
+	 * @throws IOException
+	 * @throws InvalidLuceneQueryException if the cursor is not valid for this searcher
+	 */
+	private Result searchLocation(IndexSearcher indexSearcher, String location, int maxRecs, String mode, boolean exact,
+			Set<String> fields, String cursor, long cacheGeneration) throws IOException, InvalidLuceneQueryException {
+		// repeated inputs differing only in case or surrounding spaces share an entry
+		String cacheKey = "location\t" + location.trim().toLowerCase() + "\t"
+				+ (mode == null ? "" : mode.toLowerCase()) + "\t" + maxRecs + "\t" + exact + "\t" + fields + "\t" + cursor;
+		Result cached = resultCache.get(cacheKey);
+		if (cached != null) {
+			return cached;
+		}
+		TopDocs documents;
+		Result result = new Result(new ArrayList<Map<String,String>>(0), 0, 0);
+		List<String> tiers = new ArrayList<String>();
+		List<Query> queries = getQueries(indexSearcher, location.trim(), mode, tiers);
+		long indexVersion = getVersion(indexSearcher);
+		// a cursor continues the tier its first page was found with instead of falling through the tiers again
+		Cursor position = cursor == null ? null
+				: Cursor.decode(cursor, indexVersion, indexSearcher.getIndexReader().maxDoc(), queries.size());
+		int firstTier = position == null ? 0 : position.getTier();
+		int lastTier = position == null ? queries.size() - 1 : position.getTier();
+		String resolvedTier = "none";
+		boolean sampled = isSampled();
+		for (int tier = firstTier; tier <= lastTier; tier++) {
+			Query query = queries.get(tier);
+			logQuery(sampled, location, query);
+			long start = System.nanoTime();
+			ExactNameTable table = exactNameTable;
+			CustomMappings mappings = customMappings;
+			TopDocs mapped = null;
+			if (position == null && tiers.get(tier).equals("custom") && mappings.getVersion() == indexVersion) {
+				mapped = mappings.lookup(location, maxRecs);
 			}
+			if (mapped != null) {
+				documents = mapped;
+			} else if (position == null && table != null && table.getVersion() == indexVersion && isExactNameQuery(query)) {
+				documents = table.lookup(indexSearcher.getIndexReader(), ((TermQuery) query).getTerm().text(), maxRecs);
+			} else {
+				documents = searchByPopulation(indexSearcher, query, maxRecs, exact, position == null ? null : position.getAfter());
+			}
+			tierTimers.get(tiers.get(tier)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			if (documents.totalHits.value > 0){
+				int totalCounts = documents.totalHits.relation == TotalHits.Relation.EQUAL_TO ? (int) documents.totalHits.value : -1;
+				List<Map<String,String>> mapList = getRecords(indexSearcher, documents.scoreDocs, fields);
+				String next = null;
+				if (maxRecs > 0 && documents.scoreDocs.length == maxRecs) {
+					next = Cursor.encode(indexVersion, tier, (FieldDoc) documents.scoreDocs[maxRecs - 1]);
+				}
+				result = new Result(mapList, mapList.size(), totalCounts, next);
+				resolvedTier = tiers.get(tier);
+				// break if already found based on search mode
+				break;
+			}
+		}
+		tierHits.get(resolvedTier).increment();
+		locationResults.record(result.getRetrieved());
+		resultCache.put(cacheKey, result, cacheGeneration);
+		return result;
+	}
+
+	/**
+	 * @return true for one in lucene.log.sample.rate requests, whose queries are logged at INFO
+	 */
+	private boolean isSampled() {
+		return logSampleRate > 0 && ThreadLocalRandom.current().nextInt(logSampleRate) == 0;
+	}
+
+	/**
+	 * Logs the query an input was searched with at FINE, or at INFO if the request was sampled.
+	 * Nothing is formatted unless the message is logged.
+	 */
+	private static void logQuery(boolean sampled, String input, Query query) {
+		Level level = sampled ? Level.INFO : Level.FINE;
+		if (logger.isLoggable(level)) {
+			logger.log(level, "'" + input + "' ==> '" + query + "'");
 		}
 	}
 
 	/**
-	 * Based on the location, a list of Lucene Query objects are retrieved arranged from strict to relaxed
+	 * Loads the stored fields of the hits without creating Document objects
+	 * @param indexSearcher - searcher the hits were found with
+	 * @param hits - hits to be loaded
+	 * @param fields - stored fields to be loaded, null for all
+	 * @return one record per hit
+	 * @throws IOException
+	 */
+	private static List<Map<String,String>> getRecords(IndexSearcher indexSearcher, ScoreDoc[] hits, Set<String> fields) throws IOException {
+		List<Map<String,String>> records = new ArrayList<Map<String,String>>(hits.length);
+		RecordVisitor visitor = new RecordVisitor(fields);
+		for (ScoreDoc hit : hits) {
+			records.add(visitor.newRecord());
+			indexSearcher.doc(hit.doc, visitor);
+		}
+		return records;
+	}
+
+	/**
+	 * @param fields - requested field names
+	 * @return sorted field names, null if all fields are requested
+	 */
+	private static Set<String> getFieldSet(List<String> fields) {
+		return fields == null || fields.isEmpty() ? null : new TreeSet<String>(fields);
+	}
+
+	/**
+	 * Collects the records with the largest population and counts the hits in the same pass.
+	 * As the index is sorted by population, segments can stop collecting early when not counting exactly.
+	 * @param indexSearcher - searcher acquired from the SearcherManager
+	 * @param query - query to be run
+	 * @param numRecords - number of records to be returned
+	 * @param exact - count all hits, otherwise counting stops once numRecords hits are found
+	 * @param after - last record of the previous page, null for the first page
+	 * @return top records, with the total hits being a lower bound if not counted exactly
+	 * @throws IOException
+	 */
+	private TopDocs searchByPopulation(IndexSearcher indexSearcher, Query query, int numRecords, boolean exact, FieldDoc after) throws IOException {
+		TopFieldCollector collector = TopFieldCollector.create(LuceneWriter.populationSort, Math.max(1, numRecords), after,
+				exact ? Integer.MAX_VALUE : numRecords);
+		indexSearcher.search(query, collector);
+		return collector.topDocs(0, numRecords);
+	}
+
+	/**
+	 * Based on the location, a list of Lucene Query objects are retrieved arranged from strict to relaxed.
+	 * The queries are built from the analyzed parts of the location rather than parsed from query
+	 * syntax, so quotes and other special characters in the location are matched as text.
+	 * @param indexSearcher - searcher the queries will be run with
 	 * @param location - location in a string
 	 * @param mode - search mode i.e. default, strict, full (more needs to be added)
+	 * @param tiers - receives the name of each query for the metrics, one of TIERS
 	 * @return List of Lucene Query objects
+	 * @throws IOException
 	 */
-	private List<Query> getQueries(String location, String mode) {
+	private List<Query> getQueries(IndexSearcher indexSearcher, String location, String mode, List<String> tiers) throws IOException {
 		List<Query> queries = new ArrayList<Query>();
-		String queryString = "";
-		String fullQueryString = "";
-		boolean addFullQuery = false;
-		Query query;
-		FuzzyQuery fuzzyQuery;
-		BooleanQuery.Builder boolQueryBuilder = null;
+		int schema = getSchema(indexSearcher);
+		// misspelled names are looked up through the NameDeletes field if enabled and indexed
+		int nameEdits = fuzzyEngine.equalsIgnoreCase("deletes") ? Math.min(fuzzyMaxEdits, getNameDeletes(indexSearcher)) : 0;
 		// First check if they are in the custom map
-		if (custMap.containsKey(location)){
-			queryString = "GeonameId:\""+custMap.get(location) +"\"";
-		} else {
-			// Next check if there are commas and encode them as child, parent
-			String[] locations = location.split(",");
-			if (mode != null && mode.equalsIgnoreCase("full")){
-				addFullQuery = true;
-			}
-			int termCount = 0;
-			for(int i=0; i<locations.length; i++){
-				String loc_part = locations[i].trim();
-				if (!loc_part.isEmpty()){
-					if (termCount == 0) {
-						queryString = "Name:\""+ loc_part +"\"";
-						boolQueryBuilder = new BooleanQuery.Builder();
-						String[] loc_subparts = loc_part.split(" ");
-						for(String loc_subpart: loc_subparts){
-							fuzzyQuery = new FuzzyQuery(new Term("Name", loc_subpart.toLowerCase()), 1);
-							boolQueryBuilder.add(fuzzyQuery, BooleanClause.Occur.MUST);
-						}
-					} else {
-						if(!queryString.trim().isEmpty()){
-							queryString += " AND AncestorsNames:\""+ loc_part +"\"";
-							if (boolQueryBuilder != null) {
-								int editDistance = (i==locations.length-1 ? 0 : 1);
-								String[] loc_subparts = loc_part.split(" ");
-								for(String loc_subpart: loc_subparts){
-									fuzzyQuery = new FuzzyQuery(new Term("AncestorsNames", loc_subpart.toLowerCase()), editDistance);
-									boolQueryBuilder.add(fuzzyQuery, BooleanClause.Occur.MUST);
-								}
-							}
-						} else {
-							// this part should never be executed so remove it anyway (??)
-							queryString = "AncestorsNames:\""+ loc_part +"\"";
+		String geonameId = customMappings.getGeonameId(location);
+		if (geonameId != null) {
+			queries.add(new TermQuery(new Term("GeonameId", geonameId)));
+			tiers.add("custom");
+			return queries;
+		}
+		// Next check if there are commas and encode them as child, parent
+		String[] locations = location.split(",");
+		boolean fullMode = mode != null && mode.equalsIgnoreCase("full");
+		BooleanQuery.Builder strictQueryBuilder = new BooleanQuery.Builder();
+		BooleanQuery.Builder fullQueryBuilder = new BooleanQuery.Builder();
+		BooleanQuery.Builder fuzzyQueryBuilder = new BooleanQuery.Builder();
+		Query nameQuery = null;
+		List<String> parents = new ArrayList<String>();
+		int termCount = 0;
+		for(int i=0; i<locations.length; i++){
+			String loc_part = locations[i].trim();
+			if (!loc_part.isEmpty()){
+				List<String> terms = new ArrayList<String>();
+				List<Integer> positions = new ArrayList<Integer>();
+				analyze(loc_part, terms, positions);
+				if (termCount > 0) {
+					parents.add(LuceneWriter.normalizeName(loc_part));
+				}
+				if (termCount == 0 && schema == LuceneWriter.SCHEMA_PACKED) {
+					nameQuery = getPhraseQuery("Name", terms, positions);
+					addClause(strictQueryBuilder, nameQuery);
+					for(String term: terms){
+						List<String> words = getFuzzyWords(indexSearcher, term, nameEdits);
+						fuzzyQueryBuilder.add(getFuzzyQuery("Name", term, words), BooleanClause.Occur.MUST);
+					}
+				} else if (termCount == 0) {
+					// the name or one of the alternate names has to match as a whole
+					nameQuery = either(getPhraseQuery("Name", terms, positions), getPhraseQuery("AltName", terms, positions));
+					addClause(strictQueryBuilder, nameQuery);
+					if (!terms.isEmpty()) {
+						BooleanQuery.Builder nameFuzzyBuilder = new BooleanQuery.Builder();
+						BooleanQuery.Builder altNameFuzzyBuilder = new BooleanQuery.Builder();
+						for(String term: terms){
+							List<String> words = getFuzzyWords(indexSearcher, term, nameEdits);
+							nameFuzzyBuilder.add(getFuzzyQuery("Name", term, words), BooleanClause.Occur.MUST);
+							altNameFuzzyBuilder.add(getFuzzyQuery("AltName", term, words), BooleanClause.Occur.MUST);
 						}
+						fuzzyQueryBuilder.add(either(nameFuzzyBuilder.build(), altNameFuzzyBuilder.build()), BooleanClause.Occur.MUST);
 					}
-					if (addFullQuery) {
-						fullQueryString += termCount==0 ? "FullHierarchy:\""+ loc_part +"\"" : " AND FullHierarchy:\""+ loc_part +"\"";
+				} else {
+					addClause(strictQueryBuilder, getPhraseQuery("AncestorsNames", terms, positions));
+					int editDistance = (i==locations.length-1 ? 0 : 1);
+					for(String term: terms){
+						fuzzyQueryBuilder.add(new FuzzyQuery(new Term("AncestorsNames", term), editDistance), BooleanClause.Occur.MUST);
 					}
-					termCount++;
 				}
-			}
-			if (locations.length > 1){
-				// if more than one field, add full query in the hierarchy
-				addFullQuery = true;
-			}
-			if(queryString.trim().isEmpty()){
-				logger.warning("Empty query");
-				queryString = "Name:NOTAVALIDLOCATIONNAME";
+				addClause(fullQueryBuilder, getPhraseQuery("FullHierarchy", terms, positions));
+				termCount++;
 			}
 		}
-		try {
-			query = queryParser.parse(queryString);
-			// logger.info("Query:'" + location + "' ==> '" + queryString + "' ==> '" + query + "'");
-			queries.add(query);
-		} catch (ParseException e) {
-			logger.warning("Error parsing query for:'" + location + "' ==> '" + queryString + "'");;
-		}
-		// Check and add full query string
-		if (addFullQuery){
-			try {
-				query = queryParser.parse(fullQueryString);
-				// logger.info("Full Query:'" + location + "' ==> '" + fullQueryString + "' ==> '" + query + "'");
-				queries.add(query);
-			} catch (Exception e) {
-				logger.warning("Error parsing query for:'" + location + "' ==> '" + fullQueryString + "'");;
-			}
-			if (boolQueryBuilder != null) {
-				BooleanQuery boolQuery = boolQueryBuilder.build();
-				// logger.info("Fuzzy Query:'" + location + "' ==> '" + boolQuery.toString() + "'");
-				queries.add(boolQuery);
+		if (termCount == 0) {
+			logger.warning("Empty query");
+			queries.add(new MatchNoDocsQuery());
+			tiers.add("empty");
+			return queries;
+		}
+		// a place named exactly like the input comes before places only containing it in a name
+		if (exactNames && locations.length == 1) {
+			queries.add(new TermQuery(new Term("ExactName", LuceneWriter.normalizeName(location))));
+			tiers.add("exact");
+		}
+		if (hierarchyJoin && nameQuery != null && !parents.isEmpty()) {
+			Query hierarchyQuery = getHierarchyQuery(indexSearcher, nameQuery, parents);
+			if (hierarchyQuery != null) {
+				queries.add(hierarchyQuery);
+				tiers.add("hierarchy");
 			}
 		}
+		queries.add(strictQueryBuilder.build());
+		tiers.add("strict");
+		// the full hierarchy is only searched in full mode, fuzzy matches also if there is more than one part
+		if (fullMode) {
+			queries.add(fullQueryBuilder.build());
+			tiers.add("full");
+		}
+		if (fullMode || locations.length > 1) {
+			queries.add(fuzzyQueryBuilder.build());
+			tiers.add("fuzzy");
+		}
 		return queries;
 	}
 
-	private static Map<String, String> getCustomMap(String filename) {
-		Map<String, String> map = new HashMap<String, String>();
-		File geoFile = new File(filename);
-		Scanner scan;
-		try {
-			scan = new Scanner(geoFile);
-			while (scan.hasNext()) {
-				String record = scan.nextLine().trim();
-				if(record.split("\t").length==2){
-					logger.info("Adding:'" + record.split("\t")[0].trim() +"':'"+ record.split("\t")[1].trim()+"'");
-					map.put(record.split("\t")[0].trim(), record.split("\t")[1].trim());
-				}
+	/**
+	 * @param indexSearcher - searcher the query will be run with
+	 * @param term - analyzed word of a name
+	 * @param nameEdits - edit distance searched through the NameDeletes field, 0 to use a FuzzyQuery
+	 * @return indexed words close to the word, null if a FuzzyQuery is used
+	 * @throws IOException
+	 */
+	private List<String> getFuzzyWords(IndexSearcher indexSearcher, String term, int nameEdits) throws IOException {
+		if (nameEdits <= 0) {
+			return null;
+		}
+		return NameDeletesMatcher.getWords(indexSearcher.getIndexReader(), term, nameEdits, fuzzyMaxCandidates);
+	}
+
+	private static Query getFuzzyQuery(String field, String term, List<String> words) {
+		if (words == null) {
+			return new FuzzyQuery(new Term(field, term), 1);
+		}
+		return words.isEmpty() ? new MatchNoDocsQuery() : getTermsQuery(field, words);
+	}
+
+	/**
+	 * Places with the name whose ancestors include a place named exactly like each parent
+	 * @param indexSearcher - searcher the query will be run with
+	 * @param nameQuery - query for the name of the place
+	 * @param parents - normalized names of the parents, e.g. state and country
+	 * @return query joining the name to the ids of the parents, null if a parent is not known
+	 * @throws IOException
+	 */
+	private Query getHierarchyQuery(IndexSearcher indexSearcher, Query nameQuery, List<String> parents) throws IOException {
+		BooleanQuery.Builder hierarchyQueryBuilder = new BooleanQuery.Builder();
+		hierarchyQueryBuilder.add(nameQuery, BooleanClause.Occur.MUST);
+		for (String parent : parents) {
+			List<String> parentIds = getParentIds(indexSearcher, parent);
+			if (parentIds.isEmpty()) {
+				return null;
+			}
+			hierarchyQueryBuilder.add(getTermsQuery("AncestorsIds", parentIds), BooleanClause.Occur.FILTER);
+		}
+		return hierarchyQueryBuilder.build();
+	}
+
+	/**
+	 * Resolves the name of a parent to the geonameids of administrative divisions, countries and
+	 * continents with exactly that name or alternate name
+	 * @param indexSearcher - searcher acquired from the SearcherManager
+	 * @param parent - normalized name of the parent
+	 * @return ids of the most populated places with the name, empty if there are none
+	 * @throws IOException
+	 */
+	private List<String> getParentIds(IndexSearcher indexSearcher, String parent) throws IOException {
+		String cacheKey = getVersion(indexSearcher) + "\t" + parent;
+		List<String> parentIds = parentCache.get(cacheKey);
+		if (parentIds != null) {
+			return parentIds;
+		}
+		long cacheGeneration = parentCache.getGeneration();
+		Query divisions = new BooleanQuery.Builder()
+				.add(new TermQuery(new Term("Class", "A")), BooleanClause.Occur.SHOULD)
+				.add(new TermQuery(new Term("Code", "CONT")), BooleanClause.Occur.SHOULD)
+				.build();
+		Query parentQuery = new BooleanQuery.Builder()
+				.add(new TermQuery(new Term("ExactName", parent)), BooleanClause.Occur.MUST)
+				.add(divisions, BooleanClause.Occur.FILTER)
+				.build();
+		TopDocs documents = searchByPopulation(indexSearcher, parentQuery, MAX_PARENTS, false, null);
+		parentIds = new ArrayList<String>(documents.scoreDocs.length);
+		for (Map<String,String> record : getRecords(indexSearcher, documents.scoreDocs, Collections.singleton("GeonameId"))) {
+			parentIds.add(record.get("GeonameId"));
+		}
+		parentCache.put(cacheKey, parentIds, cacheGeneration);
+		return parentIds;
+	}
+
+	private static boolean isExactNameQuery(Query query) {
+		return query instanceof TermQuery && ((TermQuery) query).getTerm().field().equals("ExactName");
+	}
+
+	/**
+	 * Runs text through the analyzer used for indexing
+	 * @param text - text to be analyzed
+	 * @param terms - filled with the tokens of the text
+	 * @param positions - filled with the position of each token, counting removed stop words
+	 * @throws IOException
+	 */
+	private void analyze(String text, List<String> terms, List<Integer> positions) throws IOException {
+		try (TokenStream tokenStream = analyzer.tokenStream("Name", text)) {
+			CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+			PositionIncrementAttribute positionAttribute = tokenStream.addAttribute(PositionIncrementAttribute.class);
+			tokenStream.reset();
+			int position = -1;
+			while (tokenStream.incrementToken()) {
+				position += positionAttribute.getPositionIncrement();
+				terms.add(termAttribute.toString());
+				positions.add(position);
 			}
-			scan.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			tokenStream.end();
 		}
-		return map;
 	}
 
+	/**
+	 * Same query as a quoted phrase would be parsed into
+	 * @param field - field to be searched
+	 * @param terms - analyzed tokens of the phrase
+	 * @param positions - positions of the tokens
+	 * @return TermQuery or PhraseQuery, null if the phrase has no tokens
+	 */
+	private static Query getPhraseQuery(String field, List<String> terms, List<Integer> positions) {
+		if (terms.isEmpty()) {
+			return null;
+		} else if (terms.size() == 1) {
+			return new TermQuery(new Term(field, terms.get(0)));
+		}
+		PhraseQuery.Builder phraseQueryBuilder = new PhraseQuery.Builder();
+		for (int i = 0; i < terms.size(); i++) {
+			phraseQueryBuilder.add(new Term(field, terms.get(i)), positions.get(i));
+		}
+		return phraseQueryBuilder.build();
+	}
+
+	private static Query either(Query first, Query second) {
+		if (first == null) {
+			return null;
+		}
+		return new BooleanQuery.Builder()
+				.add(first, BooleanClause.Occur.SHOULD)
+				.add(second, BooleanClause.Occur.SHOULD)
+				.build();
+	}
+
+	private static void addClause(BooleanQuery.Builder boolQueryBuilder, Query query) {
+		// phrases of stop words only have no tokens and are left out, as the query parser did
+		if (query != null) {
+			boolQueryBuilder.add(query, BooleanClause.Occur.MUST);
+		}
+	}
 
 }
@@ -0,0 +1,94 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import edu.asu.zoophy.geonames.indexer.LuceneWriter;
+
+/**
+ * Finds the indexed words within an edit distance of a misspelled word through the NameDeletes
+ * field (symmetric delete). Both the word and the indexed words are reduced to the keys left after
+ * deleting characters; words sharing a key are read from the term dictionary by seeking the key, and
+ * kept if their edit distance, counting transpositions like FuzzyQuery, is small enough.
+ * @author amagge
+ */
+class NameDeletesMatcher {
+
+	// indexed entries read per key, so that keys shared by very many words do not slow a search down
+	private static final int MAX_ENTRIES_PER_KEY = 1000;
+
+	private NameDeletesMatcher() {
+	}
+
+	/**
+	 * @param reader - reader of an index with the NameDeletes field
+	 * @param word - analyzed word
+	 * @param maxEdits - maximum edit distance, at most what the index covers
+	 * @param maxWords - maximum number of words returned
+	 * @return indexed words within maxEdits of the word, closest first
+	 * @throws IOException
+	 */
+	static List<String> getWords(IndexReader reader, String word, int maxEdits, int maxWords) throws IOException {
+		Map<String, Integer> distances = new LinkedHashMap<String, Integer>();
+		Terms terms = MultiTerms.getTerms(reader, "NameDeletes");
+		if (terms != null) {
+			TermsEnum termsEnum = terms.iterator();
+			for (String key : LuceneWriter.getDeleteKeys(word, maxEdits)) {
+				BytesRef prefix = new BytesRef(key + LuceneWriter.NAME_DELETES_SEPARATOR);
+				if (termsEnum.seekCeil(prefix) == TermsEnum.SeekStatus.END) {
+					continue;
+				}
+				int entries = 0;
+				for (BytesRef term = termsEnum.term(); term != null && StringHelper.startsWith(term, prefix)
+						&& entries < MAX_ENTRIES_PER_KEY; term = termsEnum.next(), entries++) {
+					// the prefix length is in bytes, so the word is decoded after it rather than cut from the whole term
+					String candidate = new BytesRef(term.bytes, term.offset + prefix.length, term.length - prefix.length).utf8ToString();
+					if (!distances.containsKey(candidate)) {
+						int distance = getDistance(word, candidate);
+						if (distance <= maxEdits) {
+							distances.put(candidate, distance);
+						}
+					}
+				}
+			}
+		}
+		List<String> words = new ArrayList<String>(distances.keySet());
+		words.sort((first, second) -> Integer.compare(distances.get(first), distances.get(second)));
+		return words.size() > maxWords ? words.subList(0, maxWords) : words;
+	}
+
+	/**
+	 * Optimal string alignment distance: insertions, deletions, substitutions and transpositions of
+	 * adjacent characters
+	 */
+	static int getDistance(String first, String second) {
+		int[][] d = new int[first.length() + 1][second.length() + 1];
+		for (int i = 0; i <= first.length(); i++) {
+			d[i][0] = i;
+		}
+		for (int j = 0; j <= second.length(); j++) {
+			d[0][j] = j;
+		}
+		for (int i = 1; i <= first.length(); i++) {
+			for (int j = 1; j <= second.length(); j++) {
+				int cost = first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1;
+				d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+				if (i > 1 && j > 1 && first.charAt(i - 1) == second.charAt(j - 2) && first.charAt(i - 2) == second.charAt(j - 1)) {
+					d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+				}
+			}
+		}
+		return d[first.length()][second.length()];
+	}
+
+}
@@ -0,0 +1,143 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Fields of a retrieved record (fieldname->fieldvalue), kept in two arrays instead of a hashmap.
+ * Records hold about twenty fields, so lookups scan the names and results stay small in the caches.
+ * Written to json field by field without creating map entries.
+ * @author amagge
+ */
+@JsonSerialize(using = Record.Serializer.class)
+public class Record extends AbstractMap<String, String> {
+
+	private String[] names;
+	private String[] values;
+	private int size = 0;
+
+	public Record() {
+		this(20);
+	}
+
+	/**
+	 * @param capacity - expected number of fields
+	 */
+	public Record(int capacity) {
+		names = new String[Math.max(1, capacity)];
+		values = new String[names.length];
+	}
+
+	private int indexOf(Object name) {
+		for (int i = 0; i < size; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a field, replacing the value of a field with the same name like a hashmap would
+	 * @param name - field name
+	 * @param value - field value
+	 * @return previous value of the field or null
+	 */
+	@Override
+	public String put(String name, String value) {
+		int i = indexOf(name);
+		if (i >= 0) {
+			String previous = values[i];
+			values[i] = value;
+			return previous;
+		}
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		names[size] = name;
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+	@Override
+	public String get(Object name) {
+		int i = indexOf(name);
+		return i >= 0 ? values[i] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return indexOf(name) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new Iterator<Map.Entry<String, String>>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					@Override
+					public Map.Entry<String, String> next() {
+						if (next >= size) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(names[next], values[next]);
+						next++;
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Writes the fields as a json object
+	 */
+	public static class Serializer extends StdSerializer<Record> {
+		private static final long serialVersionUID = 1L;
+
+		public Serializer() {
+			super(Record.class);
+		}
+
+		@Override
+		public void serialize(Record record, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			generator.writeStartObject();
+			for (int i = 0; i < record.size; i++) {
+				generator.writeStringField(record.names[i], record.values[i]);
+			}
+			generator.writeEndObject();
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+
+/**
+ * Loads the stored fields of a document into a {@link Record}, skipping the fields
+ * that were not requested and stopping once all requested fields are loaded
+ * @author amagge
+ */
+class RecordVisitor extends StoredFieldVisitor {
+
+	private final Set<String> fields;
+	private Record record;
+
+	/**
+	 * @param fields - names of the fields to be loaded, null loads all fields
+	 */
+	RecordVisitor(Set<String> fields) {
+		this.fields = fields;
+	}
+
+	/**
+	 * Starts the record of the next document to be visited
+	 * @return record filled by the visitor
+	 */
+	Record newRecord() {
+		record = new Record(fields == null ? 20 : fields.size());
+		return record;
+	}
+
+	@Override
+	public Status needsField(FieldInfo fieldInfo) {
+		if (fields == null) {
+			return Status.YES;
+		}
+		if (record.size() == fields.size() && !record.containsKey(fieldInfo.name)) {
+			return Status.STOP;
+		}
+		return fields.contains(fieldInfo.name) ? Status.YES : Status.NO;
+	}
+
+	@Override
+	public void stringField(FieldInfo fieldInfo, byte[] value) {
+		record.put(fieldInfo.name, new String(value, StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public void intField(FieldInfo fieldInfo, int value) {
+		record.put(fieldInfo.name, Integer.toString(value));
+	}
+
+	@Override
+	public void longField(FieldInfo fieldInfo, long value) {
+		record.put(fieldInfo.name, Long.toString(value));
+	}
+
+	@Override
+	public void floatField(FieldInfo fieldInfo, float value) {
+		record.put(fieldInfo.name, Float.toString(value));
+	}
+
+	@Override
+	public void doubleField(FieldInfo fieldInfo, double value) {
+		record.put(fieldInfo.name, Double.toString(value));
+	}
+
+}
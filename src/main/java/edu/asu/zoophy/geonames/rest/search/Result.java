@@ -3,13 +3,16 @@ package edu.asu.zoophy.geonames.rest.search;
 import java.util.Map;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * Result object as a reply to requested lucene query
  * records 		containing records as a list of hashmaps (fieldname->fieldvalue). 
  * 				it treats all fields as strings before returning as json.
  * retrieved 	contains the number of records returned with the object
  * available 	may contain number of total records that may match the query, 
- * 				-1 if not requested (since it is an expensive operation)
+ * 				-1 if not requested (since it is an expensive operation) or not counted exactly
+ * next 		cursor to request the following page with, only present if the page is full
  * @author amagge
  */
 public class Result {
@@ -17,12 +20,19 @@ public class Result {
 	private List<Map<String,String>> records;
 	private int retrieved=0;
 	private int available=0;
+	private String next;
 	
 	
 	public Result(List<Map<String, String>> records, int retrieved, int available) {
+		this(records, retrieved, available, null);
+	}
+
+
+	public Result(List<Map<String, String>> records, int retrieved, int available, String next) {
 		this.records = records;
 		this.retrieved = retrieved;
 		this.available = available;
+		this.next = next;
 	}
 
 
@@ -40,5 +50,11 @@ public class Result {
 		return available;
 	}
 
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getNext() {
+		return next;
+	}
+
 	
 }
\ No newline at end of file
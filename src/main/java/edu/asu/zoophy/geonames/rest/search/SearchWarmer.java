@@ -0,0 +1,195 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import java.io.BufferedReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Warms up the shared searcher at startup by replaying a sample of earlier requests, so the page
+ * cache, the lazily loaded index structures and the result cache are filled before the service
+ * reports itself ready. Each line of the sample is either a location or a line of the access log.
+ * @author amagge
+ */
+@Component("SearchWarmer")
+public class SearchWarmer {
+
+	private static final int BATCH_SIZE = 1000;
+
+	@Autowired
+	private LuceneSearcher luceneSearcher;
+
+	@Value("${lucene.warmup.file:}")
+	private String warmupFile;
+
+	@Value("${lucene.warmup.max.queries:10000}")
+	private Integer maxQueries;
+
+	@Value("${lucene.warmup.max.seconds:300}")
+	private Integer maxSeconds;
+
+	@Value("${lucene.query.default.records:100}")
+	private Integer defaultRecords;
+
+	@Value("${lucene.query.max.records:1000}")
+	private Integer maxRecords;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private volatile boolean ready = false;
+
+	private final static Logger logger = Logger.getLogger("SearchWarmer");
+
+	/**
+	 * @return true once the warm-up has finished, right away if no warm-up file is configured
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Replays the warm-up file in the background, requests are served but not reported ready meanwhile
+	 */
+	@PostConstruct
+	private void start() {
+		if (warmupFile == null || warmupFile.trim().isEmpty()) {
+			ready = true;
+			return;
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				warmUp(Paths.get(warmupFile.trim()));
+			} finally {
+				ready = true;
+			}
+		}, "lucene-warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void warmUp(Path file) {
+		long start = System.currentTimeMillis();
+		long deadline = start + maxSeconds * 1000L;
+		int replayed = 0;
+		int failed = 0;
+		List<LocationQuery> locations = new ArrayList<LocationQuery>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			for (String line = reader.readLine(); line != null && replayed < maxQueries; line = reader.readLine()) {
+				if (System.currentTimeMillis() > deadline) {
+					logger.warning("Stopped warm-up after " + maxSeconds + " seconds");
+					break;
+				}
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				try {
+					if (!line.startsWith("{")) {
+						locations.add(new LocationQuery(line, defaultRecords, null));
+					} else if (!replay(line, locations)) {
+						continue;
+					}
+					replayed++;
+					if (locations.size() == BATCH_SIZE) {
+						failed += flush(locations);
+					}
+				} catch (Exception e) {
+					// a query of the sample that no longer works does not stop the warm-up
+					failed++;
+				}
+			}
+			if (!locations.isEmpty()) {
+				failed += flush(locations);
+			}
+			logger.info("Warmed up with " + replayed + " queries in " + (System.currentTimeMillis() - start) + " ms"
+					+ (failed > 0 ? ", " + failed + " failed" : ""));
+		} catch (Exception e) {
+			logger.warning("Could not warm up from '" + file + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Searches the queued locations as one batch, or one by one if the batch fails, so a location that
+	 * no longer works does not keep the rest of its batch from being searched
+	 * @param locations - locations to be searched, cleared afterwards
+	 * @return number of locations that failed
+	 */
+	private int flush(List<LocationQuery> locations) {
+		int failed = 0;
+		try {
+			luceneSearcher.searchLocations(locations);
+		} catch (Exception batchException) {
+			for (LocationQuery location : locations) {
+				if (location.getLocation() == null || location.getLocation().trim().isEmpty()) {
+					// answered without a search in a batch
+					continue;
+				}
+				try {
+					luceneSearcher.searchLocation(location.getLocation(), location.getCount(), location.getMode(), true, null, null);
+				} catch (Exception e) {
+					failed++;
+				}
+			}
+		} finally {
+			locations.clear();
+		}
+		return failed;
+	}
+
+	/**
+	 * Replays a GET /location or /search request of the access log, locations are only queued for a batch
+	 * @param line - JSON line of the access log
+	 * @param locations - receives a location to be searched
+	 * @return false if the line is not a location or /search request
+	 */
+	private boolean replay(String line, List<LocationQuery> locations) throws Exception {
+		JsonNode request = objectMapper.readTree(line);
+		String path = request.path("path").asText();
+		Map<String, String> params = getParams(request.path("query").asText());
+		int count = defaultRecords;
+		if (params.containsKey("count")) {
+			try {
+				count = Math.min(maxRecords, Math.abs(Integer.parseInt(params.get("count"))));
+			} catch (NumberFormatException e) {
+				// count=all returns the default count, as the controller does
+			}
+		}
+		if (path.equals("/location") && params.containsKey("location")) {
+			locations.add(new LocationQuery(params.get("location"), count, params.get("mode")));
+			return true;
+		} else if (path.equals("/search") && params.containsKey("query") && !params.containsKey("stream")) {
+			luceneSearcher.searchIndex(params.get("query"), count, "all".equalsIgnoreCase(params.get("count")), null, null);
+			return true;
+		}
+		return false;
+	}
+
+	private static Map<String, String> getParams(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String param : query.split("&")) {
+			int equals = param.indexOf('=');
+			if (equals > 0) {
+				params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+						URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+}
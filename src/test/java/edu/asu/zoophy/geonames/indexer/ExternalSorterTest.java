@@ -0,0 +1,89 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExternalSorterTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File write(String name, List<String> lines) throws Exception {
+		File file = new File(tmp.getRoot(), name);
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private static List<String> read(File file) throws Exception {
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void mergesManyChunksInKeyOrder() throws Exception {
+		// about 100 bytes of heap per line, so 1 MB chunks split 60000 lines into several chunks
+		Random random = new Random(7);
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 60000; i++) {
+			lines.add(random.nextInt(20000) + "\tname-" + i);
+		}
+		File input = write("input.txt", lines);
+		File chunks = tmp.newFolder("chunks");
+		File output = new File(tmp.getRoot(), "sorted.txt");
+		new ExternalSorter(1, chunks).sort(input.getPath(), output.getPath(), TsvLine::toString, 0);
+
+		List<String> expected = new ArrayList<String>(lines);
+		// stable, so equal keys stay in input order
+		expected.sort((a, b) -> Integer.compare(key(a), key(b)));
+		assertEquals(expected, read(output));
+		assertTrue(ExternalSorter.isSorted(output.getPath(), 0));
+		assertArrayEquals("chunk files were not deleted", new String[0], chunks.list());
+	}
+
+	@Test
+	public void sortsAndTransformsInMemory() throws Exception {
+		File input = write("input.txt", Arrays.asList("3\tc\tkeep", "1\ta\tkeep", "2\tb\tdrop", "1\tA\tkeep"));
+		File output = new File(tmp.getRoot(), "sorted.txt");
+		new ExternalSorter(256, tmp.getRoot()).sort(input.getPath(), output.getPath(),
+				line -> line.fieldEquals(2, "drop") ? null : line.field(1) + "\t" + line.field(0), 1);
+		assertEquals(Arrays.asList("a\t1", "A\t1", "c\t3"), read(output));
+	}
+
+	@Test
+	public void skipsLinesWithoutAValidKey() throws Exception {
+		File input = write("input.txt", Arrays.asList("2\tb", "x\tbad", "", "99999999999\ttoo large", "1\ta", "1"));
+		File output = new File(tmp.getRoot(), "sorted.txt");
+		new ExternalSorter(1, tmp.getRoot()).sort(input.getPath(), output.getPath(), TsvLine::toString, 0);
+		assertEquals(Arrays.asList("1\ta", "1", "2\tb"), read(output));
+
+		new ExternalSorter(1, tmp.getRoot()).sort(input.getPath(), output.getPath(), TsvLine::toString, 1);
+		assertEquals(Arrays.asList(), read(output));
+	}
+
+	@Test
+	public void detectsSortedFiles() throws Exception {
+		assertTrue(ExternalSorter.isSorted(write("a.txt", Arrays.asList("#comment", "1\ta", "1\tb", "5\tc")).getPath(), 0));
+		assertTrue(ExternalSorter.isSorted(write("b.txt", Arrays.asList("1\ta", "bad\tb", "", "2\tc")).getPath(), 0));
+		assertTrue(ExternalSorter.isSorted(write("c.txt", new ArrayList<String>()).getPath(), 0));
+		assertFalse(ExternalSorter.isSorted(write("d.txt", Arrays.asList("1\ta", "3\tb", "2\tc")).getPath(), 0));
+		assertFalse(ExternalSorter.isSorted(write("e.txt", Arrays.asList("a\t2", "b\t1")).getPath(), 1));
+	}
+
+	private static int key(String line) {
+		return Integer.parseInt(line.substring(0, line.indexOf('\t')));
+	}
+
+}
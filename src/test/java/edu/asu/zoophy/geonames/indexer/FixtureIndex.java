@@ -0,0 +1,66 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import edu.asu.zoophy.geonames.indexer.geotree.GeoNamesTree;
+
+/**
+ * Indexes the GeoNames files of src/test/resources/geonames like the create command
+ */
+public class FixtureIndex {
+
+	private FixtureIndex() {
+	}
+
+	/**
+	 * @param resources - directory the fixture files are copied to, as an update rewrites them
+	 * @param index - directory of the index
+	 * @throws IOException
+	 */
+	public static void create(File resources, File index) throws IOException {
+		create(resources, index, LuceneWriter.SCHEMA_PACKED);
+	}
+
+	/**
+	 * @param resources - directory the fixture files are copied to, as an update rewrites them
+	 * @param index - directory of the index
+	 * @param schema - layout of the documents
+	 * @throws IOException
+	 */
+	public static void create(File resources, File index, int schema) throws IOException {
+		File fixture;
+		try {
+			fixture = Paths.get(FixtureIndex.class.getResource("/geonames").toURI()).toFile();
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+		for (File file : fixture.listFiles()) {
+			if (file.isFile()) {
+				Files.copy(file.toPath(), new File(resources, file.getName()).toPath());
+			}
+		}
+		Indexer.geonameResourcesDir = resources.getPath() + File.separator;
+		Indexer.luceneIndexDir = index.getPath();
+		Indexer.featClassExcl = new HashSet<String>(Arrays.asList("H", "L", "R", "S", "T", "U", "V"));
+		Indexer.featCodeIncl = new HashSet<String>(Arrays.asList("CONT", "RGN", "RESN", "PRK", "ISL", "ISLS"));
+		Indexer.featCodeExcl = new HashSet<String>(Arrays.asList("ZN"));
+		Indexer.geonameIdsExcl = new HashSet<String>(Arrays.asList("7729898"));
+		Indexer.indexerThreads = 2;
+		Indexer.indexerBatchSize = 2;
+		Indexer.mergeJoin = false;
+		Indexer.tmpDir = System.getProperty("java.io.tmpdir");
+		Indexer.indexSchema = schema;
+		Indexer.indexNameDeletes = 0;
+		Indexer.suggestFile = null;
+		// the tree outlives each test, so it is created again from this copy
+		GeoNamesTree.reload(Indexer.geonameResourcesDir, null, null);
+		Indexer.buildIndex();
+	}
+
+}
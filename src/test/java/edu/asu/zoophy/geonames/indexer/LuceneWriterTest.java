@@ -0,0 +1,57 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LuceneWriterTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static Set<String> find(IndexSearcher searcher, Term term) throws Exception {
+		Set<String> geonameIds = new HashSet<String>();
+		TopDocs hits = searcher.search(new TermQuery(term), 100);
+		for (ScoreDoc hit : hits.scoreDocs) {
+			geonameIds.add(searcher.doc(hit.doc).get("GeonameId"));
+		}
+		return geonameIds;
+	}
+
+	@Test
+	public void indexesEachAncestorIdWhole() throws Exception {
+		for (int schema : new int[] {LuceneWriter.SCHEMA_PACKED, LuceneWriter.SCHEMA_ALT_NAMES}) {
+			File index = tmp.newFolder("index" + schema);
+			FixtureIndex.create(tmp.newFolder("resources" + schema), index, schema);
+			try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(index.toPath()))) {
+				IndexSearcher searcher = new IndexSearcher(reader);
+				Set<String> illinois = find(searcher, new Term("AncestorsIds", "4896861"));
+				assertTrue("schema " + schema, illinois.contains("4250543"));
+				assertFalse("schema " + schema, illinois.contains("4561407"));
+				assertFalse("schema " + schema, illinois.contains("4896861"));
+				// not split by an analyzer, so no term holds more than one id
+				assertEquals("schema " + schema, 0, find(searcher, new Term("AncestorsIds", "4896861, 6252001")).size());
+				String stored = searcher.doc(searcher.search(new TermQuery(new Term("GeonameId", "4250543")), 1)
+						.scoreDocs[0].doc).get("AncestorsIds");
+				assertTrue("schema " + schema, stored.matches("\\d+(, \\d+)*"));
+				assertTrue("schema " + schema, stored.contains("4896861, 6252001"));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TsvLineTest {
+
+	private static TsvLine line(String text) {
+		TsvLine line = new TsvLine();
+		line.set(text);
+		return line;
+	}
+
+	@Test
+	public void splitsFieldsIncludingEmptyOnes() {
+		TsvLine line = line("a\t\tb\t");
+		assertEquals(4, line.fieldCount());
+		assertEquals("a", line.field(0));
+		assertEquals("", line.field(1));
+		assertEquals("b", line.field(2));
+		assertEquals("", line.field(3));
+		assertTrue(line.isFieldBlank(1));
+		assertTrue(line.isFieldBlank(3));
+		assertFalse(line.isFieldBlank(2));
+		assertEquals(1, line("").fieldCount());
+	}
+
+	@Test
+	public void comparesFieldsInPlace() {
+		TsvLine line = line("5128581\tNew York City\tP\tPPL");
+		assertTrue(line.fieldEquals(2, "P"));
+		assertFalse(line.fieldEquals(2, "PP"));
+		assertTrue(line.fieldEqualsIgnoreCase(1, "new york city"));
+		assertFalse(line.fieldEquals(1, "new york city"));
+		assertTrue(line.fieldIn(3, Arrays.asList("PPLA", "PPL")));
+		assertFalse(line.fieldIn(3, Arrays.asList("PPLA", "PPLC")));
+		assertTrue(line.startsWith('5'));
+		assertFalse(line("").startsWith('5'));
+	}
+
+	@Test
+	public void parsesIntegersInPlace() {
+		TsvLine line = line("42\t-7\t+3\t2147483647\t-9223372036854775808\t007");
+		assertEquals(42, line.parseInt(0));
+		assertEquals(-7, line.parseInt(1));
+		assertEquals(3, line.parseInt(2));
+		assertEquals(Integer.MAX_VALUE, line.parseInt(3));
+		assertEquals(Long.MIN_VALUE, line.parseLong(4));
+		assertEquals(7, line.parseInt(5));
+	}
+
+	@Test
+	public void rejectsMalformedIntegers() {
+		TsvLine line = line("\t12a\t2147483648\t-\t1.5");
+		for (int field = 0; field < line.fieldCount(); field++) {
+			try {
+				line.parseInt(field);
+				fail("parsed '" + line.field(field) + "'");
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void parsesDecimalsLikeParseDouble() {
+		String[] values = {"40.71427", "-74.00597", "0.1", "-0.0", "12", "+1.5", ".5", "5.",
+				"89.999999999", "1e5", "1.23456789012345678", "-179.99999"};
+		TsvLine line = line(String.join("\t", values));
+		for (int field = 0; field < values.length; field++) {
+			assertEquals(values[field], Double.doubleToLongBits(Double.parseDouble(values[field])),
+					Double.doubleToLongBits(line.parseDouble(field)));
+		}
+	}
+
+	@Test
+	public void rejectsMalformedDecimals() {
+		TsvLine line = line("\t-\t1.2.3\tabc");
+		for (int field = 0; field < line.fieldCount(); field++) {
+			try {
+				line.parseDouble(field);
+				fail("parsed '" + line.field(field) + "'");
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void isReusedFromLineToLine() throws Exception {
+		TsvLine line = line("a\tb\tc\td\te");
+		line.set("x\ty");
+		assertEquals(2, line.fieldCount());
+		assertEquals("y", line.field(1));
+		assertEquals("x\ty", line.toString());
+		StringWriter writer = new StringWriter();
+		line.writeTo(writer);
+		assertEquals("x\ty", writer.toString());
+		StringBuilder many = new StringBuilder("0");
+		for (int i = 1; i < 100; i++) {
+			many.append('\t').append(i);
+		}
+		line.set(many.toString());
+		assertEquals(100, line.fieldCount());
+		assertEquals(99, line.parseInt(99));
+	}
+
+	@Test
+	public void rejectsFieldsPastTheEndOfAShortLine() {
+		TsvLine line = line("1	2	3	4	5");
+		line.set("7	8");
+		for (int field : new int[] {2, 4, -1}) {
+			try {
+				line.field(field);
+				fail("read field " + field + " of a line with two fields");
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+			try {
+				line.parseInt(field);
+				fail("parsed field " + field + " of a line with two fields");
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+			try {
+				line.parseDouble(field);
+				fail("parsed field " + field + " of a line with two fields");
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+		}
+	}
+
+}
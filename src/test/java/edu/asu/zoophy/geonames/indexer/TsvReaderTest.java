@@ -0,0 +1,67 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TsvReaderTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static List<String> readAll(TsvReader reader) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		while (reader.next()) {
+			lines.add(reader.line().toString());
+		}
+		reader.close();
+		return lines;
+	}
+
+	@Test
+	public void readsLinesWithAndWithoutTrailingBreak() throws Exception {
+		assertEquals(Arrays.asList("a\t1", "", "b\t2"), readAll(new TsvReader(new StringReader("a\t1\n\nb\t2\n"))));
+		assertEquals(Arrays.asList("a\t1", "b\t2"), readAll(new TsvReader(new StringReader("a\t1\r\nb\t2"))));
+		assertFalse(new TsvReader(new StringReader("")).next());
+	}
+
+	@Test
+	public void readsLinesLongerThanTheBuffer() throws Exception {
+		StringBuilder longLine = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			longLine.append(i).append('\t');
+		}
+		longLine.append("end");
+		List<String> lines = readAll(new TsvReader(new StringReader("first\n" + longLine + "\nlast")));
+		assertEquals(3, lines.size());
+		assertEquals(longLine.toString(), lines.get(1));
+		assertEquals("last", lines.get(2));
+	}
+
+	@Test
+	public void readsFilesAsUtf8() throws Exception {
+		File file = tmp.newFile("names.txt");
+		Files.write(file.toPath(), "1\tZürich\n2\t東京\n".getBytes(StandardCharsets.UTF_8));
+		TsvReader reader = new TsvReader(file.getPath());
+		assertTrue(reader.next());
+		assertTrue(reader.line().fieldEquals(1, "Zürich"));
+		assertTrue(reader.next());
+		assertEquals(2, reader.line().parseInt(0));
+		assertEquals("東京", reader.line().field(1));
+		assertFalse(reader.next());
+		reader.close();
+	}
+
+}
@@ -0,0 +1,126 @@
+package edu.asu.zoophy.geonames.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UpdaterTest {
+
+	private static final String DATE = "2020-01-02";
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File resources;
+	private File index;
+
+	@Before
+	public void createIndex() throws Exception {
+		resources = tmp.newFolder("resources");
+		index = tmp.newFolder("index");
+		FixtureIndex.create(resources, index);
+		Indexer.tmpDir = tmp.newFolder("tmp").getPath();
+	}
+
+	@Test
+	public void reindexesModifiedRecords() throws Exception {
+		assertEquals(23363L, find("4561407").getField("Population").numericValue().longValue());
+		Updater.applyUpdates(DATE);
+		Document springfield = find("4561407");
+		assertTrue(springfield.get("Name"), springfield.get("Name").contains("Springfield Township"));
+		assertEquals(24211L, springfield.getField("Population").numericValue().longValue());
+		// new since the dump was downloaded
+		assertNotNull(find("4887158"));
+	}
+
+	@Test
+	public void removesDeletedRecords() throws Exception {
+		assertNotNull(find("5213459"));
+		Updater.applyUpdates(DATE);
+		assertNull(find("5213459"));
+		assertNotNull(find("5197085"));
+	}
+
+	@Test
+	public void reindexesChildrenOfChangedAdminUnits() throws Exception {
+		assertFalse(find("4250543").get("State").contains("Land of Lincoln"));
+		Updater.applyUpdates(DATE);
+		// Illinois got an alternate name, its county and cities carry it in their State field
+		assertTrue(find("4896861").get("Name").contains("Land of Lincoln"));
+		assertTrue(find("4250542").get("State").contains("Land of Lincoln"));
+		assertTrue(find("4250543").get("State").contains("Land of Lincoln"));
+		assertTrue(find("4887158").get("State").contains("Land of Lincoln"));
+		// modified alternate name
+		String newYork = find("5115985").get("Name");
+		assertTrue(newYork, newYork.contains("New York City"));
+		assertFalse(newYork, newYork.contains("NYC"));
+		// records of other states are left alone
+		assertFalse(find("4561407").get("State").contains("Land of Lincoln"));
+	}
+
+	@Test
+	public void skipsAlternateNamesWithMalformedIds() throws Exception {
+		Files.write(new File(resources, "alternateNamesV2.txt").toPath(),
+				"x12\t4896861\ten\tPrairie State\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		Updater.applyUpdates(DATE);
+		assertNull(find("5213459"));
+		assertTrue(find("4250543").get("State").contains("Land of Lincoln"));
+		assertFalse(find("4896861").get("Name").contains("Prairie State"));
+	}
+
+	@Test
+	public void rewritesTheDumps() throws Exception {
+		Updater.applyUpdates(DATE);
+		assertEquals(readExpected("allCountries.txt"), read(new File(resources, "allCountries.txt")));
+		assertEquals(readExpected("alternateNamesV2.txt"), read(new File(resources, "alternateNamesV2.txt")));
+		String[] left = resources.list((dir, name) -> name.startsWith("allCountries-") || name.startsWith("alternateNamesV2-"));
+		assertEquals("temporary copies were not deleted", 0, left.length);
+	}
+
+	@Test
+	public void leavesIndexAndDumpsWithoutDailyFiles() throws Exception {
+		String allCountries = read(new File(resources, "allCountries.txt"));
+		Updater.applyUpdates("2020-01-03");
+		assertNotNull(find("5213459"));
+		assertEquals(allCountries, read(new File(resources, "allCountries.txt")));
+	}
+
+	private Document find(String geonameId) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(index.toPath()))) {
+			IndexSearcher searcher = new IndexSearcher(reader);
+			TopDocs hits = searcher.search(new TermQuery(new Term("GeonameId", geonameId)), 2);
+			assertTrue("duplicates of " + geonameId, hits.scoreDocs.length <= 1);
+			return hits.scoreDocs.length == 0 ? null : searcher.doc(hits.scoreDocs[0].doc);
+		}
+	}
+
+	private String readExpected(String name) throws Exception {
+		return read(Paths.get(getClass().getResource("/geonames/expected/" + name).toURI()).toFile());
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+}
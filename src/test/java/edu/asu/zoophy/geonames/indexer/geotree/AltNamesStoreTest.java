@@ -0,0 +1,108 @@
+package edu.asu.zoophy.geonames.indexer.geotree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class AltNamesStoreTest {
+
+	@Test
+	public void returnsNullForMissingIds() {
+		AltNamesStore store = new AltNamesStore();
+		store.add(5, "five");
+		store.freeze();
+		assertNull(store.get(4));
+		assertNull(store.get(6));
+		assertFalse(store.containsKey(4));
+		assertTrue(store.containsKey(5));
+
+		AltNamesStore empty = new AltNamesStore();
+		empty.freeze();
+		assertNull(empty.get(1));
+		assertEquals(0, empty.size());
+	}
+
+	@Test
+	public void dropsDuplicatesAndSharesNames() {
+		AltNamesStore store = new AltNamesStore();
+		store.add(2, "Georgia");
+		store.add(1, "Georgia");
+		store.add(2, "Georgia");
+		store.add(2, "GA");
+		store.freeze();
+		assertEquals(2, store.size());
+		assertEquals(2, store.nameCount());
+		assertEquals(new HashSet<String>(Arrays.asList("Georgia", "GA")), store.get(2));
+		assertEquals(new HashSet<String>(Arrays.asList("Georgia")), store.get(1));
+	}
+
+	@Test
+	public void keepsNonAsciiNames() {
+		AltNamesStore store = new AltNamesStore();
+		store.add(2657896, "Zürich");
+		store.add(1850147, "東京");
+		store.add(1850147, "Tōkyō");
+		store.add(2950159, "");
+		store.freeze();
+		assertEquals(new HashSet<String>(Arrays.asList("Zürich")), store.get(2657896));
+		assertEquals(new HashSet<String>(Arrays.asList("東京", "Tōkyō")), store.get(1850147));
+		assertEquals(new HashSet<String>(Arrays.asList("")), store.get(2950159));
+	}
+
+	@Test
+	public void returnsModifiableCopies() {
+		AltNamesStore store = new AltNamesStore();
+		store.add(1, "a");
+		store.freeze();
+		store.get(1).add("b");
+		assertEquals(new HashSet<String>(Arrays.asList("a")), store.get(1));
+	}
+
+	@Test
+	public void rejectsNamesAfterFreeze() {
+		AltNamesStore store = new AltNamesStore();
+		store.freeze();
+		try {
+			store.add(1, "a");
+			fail("added to a frozen store");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void matchesAMapOfSetsWhenGrown() {
+		// enough names to grow the pairs, the name table and the blob
+		Random random = new Random(42);
+		Map<Integer, Set<String>> expected = new HashMap<Integer, Set<String>>();
+		AltNamesStore store = new AltNamesStore();
+		for (int i = 0; i < 200000; i++) {
+			int id = 1 + random.nextInt(50000);
+			String name = "name-" + random.nextInt(100000) + "-é";
+			store.add(id, name);
+			Set<String> names = expected.get(id);
+			if (names == null) {
+				names = new HashSet<String>();
+				expected.put(id, names);
+			}
+			names.add(name);
+		}
+		store.freeze();
+		assertEquals(expected.size(), store.size());
+		for (int id = 0; id <= 50001; id++) {
+			assertEquals("geonameid " + id, expected.get(id), store.get(id));
+		}
+	}
+
+}
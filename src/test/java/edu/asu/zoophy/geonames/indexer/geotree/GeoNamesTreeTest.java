@@ -0,0 +1,36 @@
+package edu.asu.zoophy.geonames.indexer.geotree;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.asu.zoophy.geonames.indexer.TsvLine;
+
+public class GeoNamesTreeTest {
+
+	private static boolean isIndexed(String altName) {
+		TsvLine line = new TsvLine();
+		line.set(altName);
+		return GeoNamesTree.isIndexedAltName(line);
+	}
+
+	@Test
+	public void indexesEnglishNamesAndAbbreviations() {
+		assertTrue(isIndexed("1\t5128581\ten\tNew York\t\t\t\t\t\t"));
+		assertTrue(isIndexed("2\t5128581\tEN\tNew York\t\t\t\t\t\t"));
+		assertTrue(isIndexed("3\t5128581\tabbr\tNYC\t\t\t\t\t\t"));
+		assertTrue(isIndexed("4\t5128581\ten\tBig Apple\t\t\t1\t\t\t"));
+	}
+
+	@Test
+	public void skipsOtherNames() {
+		assertFalse(isIndexed("5\t5128581\tde\tNeu York\t\t\t\t\t\t"));
+		assertFalse(isIndexed("6\t5128581\t\tNew York\t\t\t\t\t\t"));
+		assertFalse(isIndexed("7\t5128581\tlink\thttps://en.wikipedia.org/wiki/New_York_City\t\t\t\t\t\t"));
+		assertFalse(isIndexed("8\t5128581\teng\tNew York"));
+		assertFalse(isIndexed("#\t5128581\ten\tNew York"));
+		assertFalse(isIndexed("9\t5128581\ten"));
+	}
+
+}
@@ -0,0 +1,76 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.lucene.search.FieldDoc;
+import org.junit.Test;
+
+import edu.asu.zoophy.geonames.rest.exception.InvalidLuceneQueryException;
+
+public class CursorTest {
+
+	private static String raw(String position) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void assertRejected(String cursor, long indexVersion, int maxDoc, int tiers) {
+		try {
+			Cursor.decode(cursor, indexVersion, maxDoc, tiers);
+			fail("accepted " + cursor);
+		} catch (InvalidLuceneQueryException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void roundTrips() throws Exception {
+		String cursor = Cursor.encode(17, 2, new FieldDoc(41, Float.NaN, new Object[] {8175133L}));
+		assertTrue(cursor, cursor.matches("[A-Za-z0-9_-]+"));
+		Cursor position = Cursor.decode(cursor, 17, 42, 3);
+		assertEquals(2, position.getTier());
+		assertEquals(41, position.getAfter().doc);
+		assertEquals(8175133L, position.getAfter().fields[0]);
+	}
+
+	@Test
+	public void rejectsOtherVersions() {
+		String cursor = Cursor.encode(17, 0, new FieldDoc(1, Float.NaN, new Object[] {0L}));
+		try {
+			Cursor.decode(cursor, 18, 10, 1);
+			fail("accepted a cursor of another version");
+		} catch (InvalidLuceneQueryException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("expired"));
+		}
+	}
+
+	@Test
+	public void rejectsDocumentsOutOfRange() {
+		assertRejected(Cursor.encode(1, 0, new FieldDoc(10, Float.NaN, new Object[] {5L})), 1, 10, 1);
+		assertRejected(raw("1:0:5:-1"), 1, 10, 1);
+		assertRejected(raw("1:0:5:2147483648"), 1, 10, 1);
+	}
+
+	@Test
+	public void rejectsTiersOutOfRange() {
+		assertRejected(Cursor.encode(1, 3, new FieldDoc(0, Float.NaN, new Object[] {5L})), 1, 10, 3);
+		assertRejected(Cursor.encode(1, 1, new FieldDoc(0, Float.NaN, new Object[] {5L})), 1, 10, 1);
+		assertRejected(raw("1:-1:5:0"), 1, 10, 3);
+	}
+
+	@Test
+	public void rejectsGarbage() {
+		assertRejected("", 1, 10, 1);
+		assertRejected("not base64!", 1, 10, 1);
+		assertRejected(raw("1:0:5"), 1, 10, 1);
+		assertRejected(raw("1:0:5:0:0"), 1, 10, 1);
+		assertRejected(raw("1:0:many:0"), 1, 10, 1);
+		assertRejected(raw("x:0:5:0"), 1, 10, 1);
+		assertRejected(raw("1:0:5.5:0"), 1, 10, 1);
+	}
+
+}
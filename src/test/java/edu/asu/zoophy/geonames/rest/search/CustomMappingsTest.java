@@ -0,0 +1,173 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import edu.asu.zoophy.geonames.indexer.FixtureIndex;
+
+public class CustomMappingsTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File write(String... lines) throws Exception {
+		File file = new File(tmp.getRoot(), "custom_mappings.tsv");
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private static Document place(String geonameId, long population) {
+		Document document = new Document();
+		document.add(new StringField("GeonameId", geonameId, Field.Store.YES));
+		document.add(new NumericDocValuesField("Population", population));
+		return document;
+	}
+
+	private static String geonameId(IndexReader reader, TopDocs hits) throws Exception {
+		return new IndexSearcher(reader).doc(hits.scoreDocs[0].doc).get("GeonameId");
+	}
+
+	@Test
+	public void normalizesLocations() {
+		assertEquals("new york", CustomMappings.normalize("  New   York "));
+		assertEquals("springfield, il, usa", CustomMappings.normalize("Springfield ,IL,  USA"));
+		assertEquals("zürich", CustomMappings.normalize("ZÜRICH"));
+		assertEquals(", hk", CustomMappings.normalize(", HK"));
+	}
+
+	@Test
+	public void readsMappingsRegardlessOfCaseAndSpacing() throws Exception {
+		CustomMappings mappings = CustomMappings.read(write("Big  Apple\t5128581", "HK,  China\t1819730 ",
+				"no tab", "\t123", "empty id\t", "", "two\ttabs\t1").toPath());
+		assertEquals(2, mappings.size());
+		assertEquals("5128581", mappings.getGeonameId("big apple"));
+		assertEquals("5128581", mappings.getGeonameId(" BIG APPLE "));
+		assertEquals("1819730", mappings.getGeonameId("hk, china"));
+		assertNull(mappings.getGeonameId("two"));
+		assertNull(mappings.getGeonameId("apple"));
+	}
+
+	@Test
+	public void hasNoMappingsWithoutAFile() throws Exception {
+		CustomMappings mappings = CustomMappings.read(new File(tmp.getRoot(), "missing.tsv").toPath());
+		assertEquals(0, mappings.size());
+		assertEquals(-1, mappings.getModified());
+		assertNull(mappings.lookup("anything", 10));
+	}
+
+	@Test
+	public void resolvesToTheLiveDocumentOfEachPlace() throws Exception {
+		CustomMappings mappings = CustomMappings.read(write("big apple\t5128581", "nyc\t5128581", "atlantis\t1").toPath());
+		try (Directory directory = new ByteBuffersDirectory()) {
+			try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				writer.addDocument(place("5128581", 1));
+				writer.commit();
+				// updated in a later segment, the first copy is deleted
+				writer.updateDocument(new Term("GeonameId", "5128581"), place("5128581", 8175133));
+				writer.addDocument(place("1819730", 7491609));
+			}
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				assertEquals(-1, mappings.getVersion());
+				CustomMappings resolved = mappings.resolve(reader);
+				assertEquals(reader.getVersion(), resolved.getVersion());
+				TopDocs hits = resolved.lookup("Big Apple", 10);
+				assertEquals(1, hits.totalHits.value);
+				assertEquals("5128581", geonameId(reader, hits));
+				assertEquals(8175133L, ((FieldDoc) hits.scoreDocs[0]).fields[0]);
+				assertEquals(hits.scoreDocs[0].doc, resolved.lookup("NYC", 10).scoreDocs[0].doc);
+				assertEquals(0, resolved.lookup("nyc", 0).scoreDocs.length);
+				// mapped to a place that is not in the index
+				assertEquals(0, resolved.lookup("atlantis", 10).totalHits.value);
+				assertNull(resolved.lookup("hong kong", 10));
+			}
+		}
+	}
+
+	@Test
+	public void rereadsAChangedFile() throws Exception {
+		File file = write("big apple\t5128581");
+		CustomMappings mappings = CustomMappings.read(file.toPath());
+		write("big apple\t1819730", "hk\t1819730");
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(mappings.getModified() + 1000));
+		CustomMappings reread = CustomMappings.read(file.toPath());
+		assertEquals(mappings.getModified() + 1000, reread.getModified());
+		assertEquals("1819730", reread.getGeonameId("big apple"));
+		assertEquals("1819730", reread.getGeonameId("HK"));
+		assertEquals("5128581", mappings.getGeonameId("big apple"));
+	}
+
+	@Test
+	public void reloadsTheMappingsOfTheSearcher() throws Exception {
+		File index = tmp.newFolder("index");
+		FixtureIndex.create(tmp.newFolder("resources"), index);
+		File file = new File(tmp.getRoot(), "custom_mappings.tsv");
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("lucene.index.location", index.getPath());
+		properties.put("geonames.mapping.file", file.getPath());
+		properties.put("geonames.mapping.check.interval", "1");
+		properties.put("lucene.suggest.location", "");
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", properties));
+			context.register(LuceneSearcher.class);
+			context.refresh();
+			LuceneSearcher searcher = context.getBean(LuceneSearcher.class);
+			// also cached, the cache has to be cleared once the mapping is added
+			assertEquals(0, searcher.searchLocation("Big Apple", 10, null, false, null, null).getRetrieved());
+
+			write("big  APPLE\t5115985");
+			assertEquals("5115985", awaitMapping(searcher, "Big Apple", "5115985"));
+			write("big apple\t1819730");
+			Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis() + 1000));
+			assertEquals("1819730", awaitMapping(searcher, "Big Apple", "1819730"));
+			Files.delete(file.toPath());
+			assertEquals(null, awaitMapping(searcher, "Big Apple", null));
+		}
+	}
+
+	/**
+	 * @return GeonameId of the first record once it is the expected one, or of the last attempt
+	 */
+	private static String awaitMapping(LuceneSearcher searcher, String location, String expected) throws Exception {
+		String geonameId = null;
+		for (int i = 0; i < 100; i++) {
+			List<Map<String, String>> records = searcher.searchLocation(location, 10, null, false, null, null).getRecords();
+			geonameId = records.isEmpty() ? null : records.get(0).get("GeonameId");
+			if (expected == null ? geonameId == null : expected.equals(geonameId)) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		return geonameId;
+	}
+
+}
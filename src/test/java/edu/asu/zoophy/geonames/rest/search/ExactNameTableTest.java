@@ -0,0 +1,101 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.Test;
+
+import edu.asu.zoophy.geonames.indexer.LuceneWriter;
+
+public class ExactNameTableTest {
+
+	private static final String[] NAMES = {"springfield", "paris", "new york", "zürich", "gone", "san josé"};
+
+	/**
+	 * Several segments, ties in population, places without a population and deleted places
+	 */
+	private static Directory createIndex() throws Exception {
+		Directory directory = new ByteBuffersDirectory();
+		IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer()).setMergePolicy(NoMergePolicy.INSTANCE);
+		Random random = new Random(3);
+		try (IndexWriter writer = new IndexWriter(directory, config)) {
+			for (int i = 0; i < 600; i++) {
+				Document document = new Document();
+				document.add(new StringField("GeonameId", String.valueOf(i), Field.Store.YES));
+				document.add(new StringField("ExactName", NAMES[random.nextInt(NAMES.length)], Field.Store.NO));
+				if (random.nextInt(4) == 0) {
+					// a second name of the same place
+					document.add(new StringField("ExactName", NAMES[random.nextInt(NAMES.length)], Field.Store.NO));
+				}
+				if (i % 7 != 0) {
+					document.add(new NumericDocValuesField("Population", random.nextInt(50) * 1000L));
+				}
+				writer.addDocument(document);
+				if (i % 150 == 149) {
+					writer.commit();
+				}
+			}
+			for (int i = 0; i < 600; i += 5) {
+				writer.deleteDocuments(new Term("GeonameId", String.valueOf(i)));
+			}
+			writer.deleteDocuments(new Term("ExactName", "gone"));
+		}
+		return directory;
+	}
+
+	@Test
+	public void matchesPopulationSortedTermQueries() throws Exception {
+		try (Directory directory = createIndex(); DirectoryReader reader = DirectoryReader.open(directory)) {
+			IndexSearcher searcher = new IndexSearcher(reader);
+			ExactNameTable table = ExactNameTable.build(reader);
+			assertEquals(reader.getVersion(), table.getVersion());
+			for (String name : new String[] {"springfield", "paris", "new york", "zürich", "gone", "san josé", "nowhere"}) {
+				for (int numRecords : new int[] {0, 1, 10, 1000}) {
+					TopFieldCollector collector = TopFieldCollector.create(LuceneWriter.populationSort, Math.max(1, numRecords),
+							null, Integer.MAX_VALUE);
+					searcher.search(new TermQuery(new Term("ExactName", name)), collector);
+					TopDocs expected = collector.topDocs(0, numRecords);
+					TopDocs actual = table.lookup(reader, name, numRecords);
+					String message = name + " top " + numRecords;
+					assertEquals(message, expected.totalHits.value, actual.totalHits.value);
+					assertEquals(message, expected.scoreDocs.length, actual.scoreDocs.length);
+					for (int i = 0; i < expected.scoreDocs.length; i++) {
+						assertEquals(message + " hit " + i, expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void isEmptyWithoutTheExactNameField() throws Exception {
+		Directory directory = new ByteBuffersDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			Document document = new Document();
+			document.add(new StringField("GeonameId", "1", Field.Store.YES));
+			writer.addDocument(document);
+		}
+		try (DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals(0, ExactNameTable.build(reader).lookup(reader, "springfield", 10).totalHits.value);
+		}
+		directory.close();
+	}
+
+}
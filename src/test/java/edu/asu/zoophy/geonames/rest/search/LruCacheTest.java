@@ -0,0 +1,93 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+	@Test
+	public void evictsLeastRecentlyRead() {
+		LruCache<Integer, String> cache = new LruCache<Integer, String>(10, 0);
+		for (int i = 0; i < 10; i++) {
+			cache.put(i, "v" + i, cache.getGeneration());
+		}
+		for (int i = 0; i < 5; i++) {
+			assertEquals("v" + i, cache.get(i));
+		}
+		for (int i = 10; i < 13; i++) {
+			cache.put(i, "v" + i, cache.getGeneration());
+		}
+		assertTrue(cache.size() <= 10);
+		for (int i = 0; i < 5; i++) {
+			assertNotNull("recently read " + i + " was evicted", cache.get(i));
+		}
+		assertTrue(cache.getEvictions() >= 3);
+	}
+
+	@Test
+	public void skipsValuesOfAnOlderGeneration() {
+		LruCache<String, String> cache = new LruCache<String, String>(10, 0);
+		long generation = cache.getGeneration();
+		cache.put("a", "old", generation);
+		cache.clear();
+		assertNull(cache.get("a"));
+		cache.put("b", "computed before the clear", generation);
+		assertNull(cache.get("b"));
+		cache.put("b", "new", cache.getGeneration());
+		assertEquals("new", cache.get("b"));
+	}
+
+	@Test
+	public void disabledWithSizeZero() {
+		LruCache<String, String> cache = new LruCache<String, String>(0, 0);
+		assertFalse(cache.isEnabled());
+		cache.put("a", "b", cache.getGeneration());
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void staysBoundedUnderConcurrentUse() throws Exception {
+		final LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(1000, 0);
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(() -> {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int i = 0; i < 100000; i++) {
+						int key = random.nextInt(5000);
+						Integer value = cache.get(key);
+						if (value == null) {
+							cache.put(key, key, cache.getGeneration());
+						} else {
+							assertEquals(key, value.intValue());
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		// writers racing a sweep may each add one entry beyond the size
+		assertTrue("size " + cache.size(), cache.size() <= 1000 + threads);
+		assertEquals(800000, cache.getHits() + cache.getMisses());
+	}
+
+}
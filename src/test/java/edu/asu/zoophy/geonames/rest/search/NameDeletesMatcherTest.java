@@ -0,0 +1,117 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.Test;
+
+import edu.asu.zoophy.geonames.indexer.LuceneWriter;
+
+public class NameDeletesMatcherTest {
+
+	private static final List<String> WORDS = Arrays.asList("springfield", "springdale", "paris", "parish", "pairs",
+			"york", "cork", "yorktown", "ab", "ba", "abc", "ca", "zurich", "zürich");
+
+	/**
+	 * NameDeletes entries as the index writer adds them, covering two edits
+	 */
+	private static Directory createIndex() throws Exception {
+		Directory directory = new ByteBuffersDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (String word : WORDS) {
+				Document document = new Document();
+				for (String key : LuceneWriter.getDeleteKeys(word, 2)) {
+					document.add(new StringField("NameDeletes", key + LuceneWriter.NAME_DELETES_SEPARATOR + word, Field.Store.NO));
+				}
+				writer.addDocument(document);
+			}
+		}
+		return directory;
+	}
+
+	@Test
+	public void measuresOptimalStringAlignment() {
+		assertEquals(0, NameDeletesMatcher.getDistance("paris", "paris"));
+		assertEquals(1, NameDeletesMatcher.getDistance("paris", "parish"));
+		assertEquals(1, NameDeletesMatcher.getDistance("paris", "pari"));
+		assertEquals(1, NameDeletesMatcher.getDistance("paris", "parys"));
+		assertEquals(2, NameDeletesMatcher.getDistance("paris", "pxrys"));
+		assertEquals(5, NameDeletesMatcher.getDistance("", "paris"));
+		assertEquals(1, NameDeletesMatcher.getDistance("zurich", "zürich"));
+	}
+
+	@Test
+	public void countsTranspositionsAsOneEdit() {
+		assertEquals(1, NameDeletesMatcher.getDistance("springfeild", "springfield"));
+		assertEquals(1, NameDeletesMatcher.getDistance("ab", "ba"));
+		assertEquals(1, NameDeletesMatcher.getDistance("paris", "pairs"));
+		assertEquals(2, NameDeletesMatcher.getDistance("sprnigfeild", "springfield"));
+		// a substring is not edited twice, so this is 3 rather than the 2 of Damerau-Levenshtein
+		assertEquals(3, NameDeletesMatcher.getDistance("ca", "abc"));
+	}
+
+	@Test
+	public void findsWordsWithinOneEdit() throws Exception {
+		try (Directory directory = createIndex(); DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals(Arrays.asList("springfield"), NameDeletesMatcher.getWords(reader, "springfeild", 1, 10));
+			assertEquals(Arrays.asList("springfield"), NameDeletesMatcher.getWords(reader, "sprngfield", 1, 10));
+			List<String> paris = NameDeletesMatcher.getWords(reader, "paris", 1, 10);
+			assertEquals("paris", paris.get(0));
+			assertEquals(new HashSet<String>(Arrays.asList("paris", "parish", "pairs")), new HashSet<String>(paris));
+			assertEquals(Arrays.asList("zürich"), NameDeletesMatcher.getWords(reader, "zürichs", 1, 10));
+		}
+	}
+
+	@Test
+	public void findsWordsWithinTwoEdits() throws Exception {
+		try (Directory directory = createIndex(); DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals(Arrays.asList("springfield"), NameDeletesMatcher.getWords(reader, "sprnigfeild", 2, 10));
+			assertEquals(Arrays.asList(), NameDeletesMatcher.getWords(reader, "sprnigfeild", 1, 10));
+			List<String> york = NameDeletesMatcher.getWords(reader, "yrok", 2, 10);
+			assertEquals("york", york.get(0));
+			assertTrue(york.toString(), york.contains("cork"));
+			assertEquals(2, NameDeletesMatcher.getWords(reader, "paris", 2, 2).size());
+			// empty keys are not indexed, so "ca" is not reached by deleting every character
+			assertEquals(new HashSet<String>(Arrays.asList("ab", "ba", "abc")), new HashSet<String>(NameDeletesMatcher.getWords(reader, "b", 2, 10)));
+		}
+	}
+
+	@Test
+	public void matchesABruteForceScan() throws Exception {
+		// longer than the edits, so a match never depends on deleting every character of the misspelling
+		String[] misspellings = {"springfeild", "spirngdale", "pars", "prais", "yrok", "yorkton", "acb", "zuerich", "zürichs", "xyz"};
+		try (Directory directory = createIndex(); DirectoryReader reader = DirectoryReader.open(directory)) {
+			for (int maxEdits = 1; maxEdits <= 2; maxEdits++) {
+				for (String misspelling : misspellings) {
+					Set<String> expected = new HashSet<String>();
+					for (String word : WORDS) {
+						if (NameDeletesMatcher.getDistance(misspelling, word) <= maxEdits) {
+							expected.add(word);
+						}
+					}
+					List<String> words = NameDeletesMatcher.getWords(reader, misspelling, maxEdits, 100);
+					assertEquals(misspelling + " within " + maxEdits, expected, new HashSet<String>(words));
+					for (int i = 1; i < words.size(); i++) {
+						assertTrue("closest first: " + words, NameDeletesMatcher.getDistance(misspelling, words.get(i - 1))
+								<= NameDeletesMatcher.getDistance(misspelling, words.get(i)));
+					}
+				}
+			}
+		}
+	}
+
+}
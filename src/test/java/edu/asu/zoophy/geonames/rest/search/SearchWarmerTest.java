@@ -0,0 +1,88 @@
+package edu.asu.zoophy.geonames.rest.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import edu.asu.zoophy.geonames.indexer.FixtureIndex;
+import edu.asu.zoophy.geonames.rest.exception.InvalidLuceneQueryException;
+import edu.asu.zoophy.geonames.rest.exception.LuceneSearcherException;
+
+public class SearchWarmerTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	/**
+	 * Fails every batch and every search of the location "broken"
+	 */
+	public static class FailingSearcher extends LuceneSearcher {
+
+		static final Set<String> searched = ConcurrentHashMap.newKeySet();
+
+		public FailingSearcher(@Value("${lucene.index.location}") String indexLocation,
+								@Value("${geonames.mapping.file}") String custMapFile) throws LuceneSearcherException {
+			super(indexLocation, custMapFile, "");
+		}
+
+		@Override
+		public List<Result> searchLocations(List<LocationQuery> locationQueries) throws LuceneSearcherException {
+			throw new LuceneSearcherException("batch failed");
+		}
+
+		@Override
+		public Result searchLocation(String location, int maxRecs, String mode, boolean exact, List<String> fields, String cursor)
+				throws LuceneSearcherException, InvalidLuceneQueryException {
+			if (location.equals("broken")) {
+				throw new LuceneSearcherException("broken");
+			}
+			Result result = super.searchLocation(location, maxRecs, mode, exact, fields, cursor);
+			searched.add(location);
+			return result;
+		}
+	}
+
+	@Test
+	public void searchesTheRestOfAFailedBatch() throws Exception {
+		File index = tmp.newFolder("index");
+		FixtureIndex.create(tmp.newFolder("resources"), index);
+		File warmup = tmp.newFile("warmup.txt");
+		Files.write(warmup.toPath(), Arrays.asList("Springfield", "broken", "",
+				"{\"path\":\"/location\",\"query\":\"location=New%20York&count=5\"}", "Chicago"), StandardCharsets.UTF_8);
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("lucene.index.location", index.getPath());
+		properties.put("geonames.mapping.file", new File(tmp.getRoot(), "custom_mappings.tsv").getPath());
+		properties.put("lucene.suggest.location", "");
+		properties.put("lucene.warmup.file", warmup.getPath());
+		FailingSearcher.searched.clear();
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", properties));
+			context.register(FailingSearcher.class, SearchWarmer.class);
+			context.refresh();
+			SearchWarmer warmer = context.getBean(SearchWarmer.class);
+			for (int i = 0; i < 100 && !warmer.isReady(); i++) {
+				Thread.sleep(100);
+			}
+			assertTrue(warmer.isReady());
+			assertEquals(3, FailingSearcher.searched.size());
+			assertTrue(FailingSearcher.searched.containsAll(Arrays.asList("Springfield", "New York", "Chicago")));
+		}
+	}
+
+}